@@ -1,11 +1,20 @@
 package de.intranda.goobi.plugins;
 
 import java.io.File;
-import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
 
 import org.apache.commons.io.filefilter.FileFileFilter;
 import org.apache.log4j.Logger;
@@ -16,9 +25,7 @@ import org.goobi.production.enums.PluginType;
 import org.goobi.production.importer.DocstructElement;
 import org.goobi.production.importer.ImportObject;
 import org.goobi.production.importer.Record;
-import org.goobi.production.plugin.PluginLoader;
 import org.goobi.production.plugin.interfaces.IImportPlugin;
-import org.goobi.production.plugin.interfaces.IOpacPlugin;
 import org.goobi.production.plugin.interfaces.IPlugin;
 import org.goobi.production.properties.ImportProperty;
 
@@ -34,10 +41,13 @@ import ugh.exceptions.PreferencesException;
 import ugh.exceptions.TypeNotAllowedForParentException;
 import ugh.exceptions.WriteException;
 import ugh.fileformats.mets.MetsMods;
+import de.intranda.goobi.plugins.bsz.BSZ_BodenseeImport_CatalogueCache;
+import de.intranda.goobi.plugins.bsz.BSZ_BodenseeImport_CatalogueClient;
+import de.intranda.goobi.plugins.bsz.BSZ_BodenseeImport_CatalogueGuard;
+import de.intranda.goobi.plugins.bsz.BSZ_BodenseeImport_Configuration;
+import de.intranda.goobi.plugins.bsz.BSZ_BodenseeImport_ImageStager;
 import de.sub.goobi.forms.MassImportForm;
 import de.sub.goobi.helper.exceptions.ImportPluginException;
-import de.unigoettingen.sub.search.opac.ConfigOpac;
-import de.unigoettingen.sub.search.opac.ConfigOpacCatalogue;
 import net.xeoh.plugins.base.annotations.PluginImplementation;
 
 @PluginImplementation
@@ -47,6 +57,8 @@ public class ImageNameImportPlugin implements IImportPlugin, IPlugin {
 
     private static final String PLUGIN_NAME = "ImageNameImportPlugin";
 
+    private static final String CATALOGUE = "SWB";
+
     private Prefs prefs;
     private String importFolder = "";
     private String ppnAnalog = "";
@@ -57,6 +69,21 @@ public class ImageNameImportPlugin implements IImportPlugin, IPlugin {
     private static MetadataType SHELFMARK_TYPE;
     private static MetadataType COLLECTION_TYPE;
     private MassImportForm form;
+    // maximum number of catalogue requests at the same time
+    private int prefetchLimit = 4;
+    // limits of the catalogue requests of a mass import
+    private long catalogueTimeout = BSZ_BodenseeImport_CatalogueGuard.DEFAULT_CALL_TIMEOUT;
+    private long catalogueBudget = BSZ_BodenseeImport_CatalogueGuard.DEFAULT_TOTAL_BUDGET;
+    private int catalogueFailureThreshold = BSZ_BodenseeImport_CatalogueGuard.DEFAULT_FAILURE_THRESHOLD;
+    // how the images are put into the import folder
+    private BSZ_BodenseeImport_ImageStager.Strategy stagingStrategy = BSZ_BodenseeImport_ImageStager.Strategy.COPY;
+    // number of images that are staged at the same time
+    private int copyThreads = BSZ_BodenseeImport_ImageStager.DEFAULT_THREADS;
+    // keep images of an interrupted import that are identical to their source
+    private boolean skipIdenticalImages = true;
+    private boolean verifySkippedImages = false;
+    // write the SHA-256 digests of the images into a manifest in the process folder
+    private boolean checksumManifest = false;
 
     // TODO anpasen
     private static final String IMAGE_FOLDER_EXTENSION = "_tif";
@@ -67,6 +94,20 @@ public class ImageNameImportPlugin implements IImportPlugin, IPlugin {
 
     private List<StringPair> identifierList = new ArrayList<>(80);
 
+    public ImageNameImportPlugin() {
+        // read the settings of this import from the plugin configuration, missing settings keep their default values
+        BSZ_BodenseeImport_Configuration config = BSZ_BodenseeImport_Configuration.load(PLUGIN_NAME);
+        prefetchLimit = config.getInt("catalogue/prefetchLimit", prefetchLimit);
+        setCatalogueLimits(config.getLong("catalogue/timeout", catalogueTimeout), config.getLong("catalogue/budget", catalogueBudget),
+                config.getInt("catalogue/failureThreshold", catalogueFailureThreshold));
+        stagingStrategy = BSZ_BodenseeImport_ImageStager.Strategy.getByName(config.getString("images/strategy", stagingStrategy.name()));
+        copyThreads = config.getInt("images/copyThreads", copyThreads);
+        setSkipIdenticalImages(config.getBoolean("images/skipIdentical", skipIdenticalImages),
+                config.getBoolean("images/verifySkipped", verifySkippedImages));
+        checksumManifest = config.getBoolean("images/checksumManifest", checksumManifest);
+        BSZ_BodenseeImport_CatalogueCache.getInstance().configure(BSZ_BodenseeImport_Configuration.load(null));
+    }
+
     private static List<String> validate(String folderPath) {
         List<String> answer = new ArrayList<String>();
 
@@ -137,13 +178,20 @@ public class ImageNameImportPlugin implements IImportPlugin, IPlugin {
     @Override
     public Fileformat convertData() throws ImportPluginException {
         try {
-            ConfigOpacCatalogue coc = ConfigOpac.getInstance().getCatalogueByName("SWB");
-            IOpacPlugin myImportOpac = (IOpacPlugin) PluginLoader.getPluginByTitle(PluginType.Opac, coc.getOpacType());
-            Fileformat myRdf = myImportOpac.search("12", ppnDigital, coc, prefs);
+            return convertData(BSZ_BodenseeImport_CatalogueClient.getInstance(CATALOGUE).search(ppnDigital, prefs));
+        } catch (Exception e) {
+            logger.error(e);
+        }
+        return null;
+    }
+
+    private Fileformat convertData(Fileformat myRdf) {
+        try {
             if (myRdf != null) {
+                BSZ_BodenseeImport_CatalogueClient client = BSZ_BodenseeImport_CatalogueClient.getInstance(CATALOGUE);
                 try {
-                    ats = myImportOpac.createAtstsl(myRdf.getDigitalDocument().getLogicalDocStruct().getAllMetadataByType(prefs.getMetadataTypeByName(
-                            "TitleDocMain")).get(0).getValue(), null).toLowerCase();
+                    ats = client.getOpacPlugin().createAtstsl(myRdf.getDigitalDocument().getLogicalDocStruct().getAllMetadataByType(
+                            prefs.getMetadataTypeByName("TitleDocMain")).get(0).getValue(), null).toLowerCase();
 
                 } catch (Exception e) {
                     ats = "";
@@ -158,14 +206,112 @@ public class ImageNameImportPlugin implements IImportPlugin, IPlugin {
                 checkIdentifier(child);
             }
             return myRdf;
-        } catch (IOException e1) {
-            logger.error(e1);
         } catch (Exception e) {
             logger.error(e);
         }
         return null;
     }
 
+    /**
+     * Request the catalogue records of all given records in parallel. Each request runs in its own virtual thread, but only a limited number of
+     * requests is sent to the catalogue at the same time. The finished requests are handed out by the completion service in the order they finish.
+     * 
+     * @param ppns the digital PPN of each record
+     * @param completionService the completion service to run the requests
+     * @param guard the limits of the catalogue requests of this mass import
+     * @return the record of each pending catalogue request
+     */
+    private Map<Future<Fileformat>, String> prefetchRecords(Map<String, String> ppns, CompletionService<Fileformat> completionService,
+            BSZ_BodenseeImport_CatalogueGuard guard) {
+        BSZ_BodenseeImport_CatalogueClient client = BSZ_BodenseeImport_CatalogueClient.getInstance(CATALOGUE);
+        Semaphore permits = new Semaphore(Math.max(1, prefetchLimit));
+        Map<Future<Fileformat>, String> results = new HashMap<>();
+        for (Map.Entry<String, String> entry : ppns.entrySet()) {
+            String ppn = entry.getValue();
+            results.put(completionService.submit(() -> {
+                permits.acquire();
+                try {
+                    return client.search(ppn, prefs, guard);
+                } finally {
+                    permits.release();
+                }
+            }), entry.getKey());
+        }
+        return results;
+    }
+
+    /**
+     * Set the maximum number of catalogue requests that are sent at the same time during the mass import
+     * 
+     * @param prefetchLimit the maximum number of concurrent requests
+     */
+    public void setPrefetchLimit(int prefetchLimit) {
+        this.prefetchLimit = prefetchLimit;
+    }
+
+    /**
+     * Set the limits of the catalogue requests during the mass import
+     * 
+     * @param catalogueTimeout maximum time of a single request in milliseconds
+     * @param catalogueBudget maximum sum of the time of all requests of a mass import in milliseconds
+     * @param catalogueFailureThreshold number of failed requests in a row after that the catalogue is not asked anymore
+     */
+    public void setCatalogueLimits(long catalogueTimeout, long catalogueBudget, int catalogueFailureThreshold) {
+        this.catalogueTimeout = catalogueTimeout;
+        this.catalogueBudget = catalogueBudget;
+        this.catalogueFailureThreshold = catalogueFailureThreshold;
+    }
+
+    /**
+     * Set how the images are put into the import folder. Links fall back to copies if they are not possible.
+     * 
+     * @param stagingStrategy hard link, reflink, symbolic link or copy
+     */
+    public void setStagingStrategy(BSZ_BodenseeImport_ImageStager.Strategy stagingStrategy) {
+        this.stagingStrategy = stagingStrategy;
+    }
+
+    /**
+     * Set the number of images that are staged at the same time
+     * 
+     * @param copyThreads the maximum number of concurrent copies
+     */
+    public void setCopyThreads(int copyThreads) {
+        this.copyThreads = copyThreads;
+    }
+
+    /**
+     * Set if images that are already in the import folder, e.g. from an interrupted import, are kept
+     * 
+     * @param skipIdenticalImages keep images with the same size and modification time as their source
+     * @param verifySkippedImages compare the content of these images with their source as well
+     */
+    public void setSkipIdenticalImages(boolean skipIdenticalImages, boolean verifySkippedImages) {
+        this.skipIdenticalImages = skipIdenticalImages;
+        this.verifySkippedImages = verifySkippedImages;
+    }
+
+    /**
+     * Set if a manifest with the SHA-256 digests of the images is written into the process folder while the images are staged
+     * 
+     * @param checksumManifest true to write manifest-sha256.txt
+     */
+    public void setChecksumManifest(boolean checksumManifest) {
+        this.checksumManifest = checksumManifest;
+    }
+
+    private Fileformat getPrefetchedRecord(Future<Fileformat> result) throws ImportPluginException {
+        try {
+            return result.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new ImportPluginException("Import was interrupted while waiting for the catalogue");
+        } catch (ExecutionException e) {
+            logger.error(e.getCause());
+            throw new ImportPluginException("Catalogue record " + ppnDigital + " cannot be used: " + e.getCause().getMessage());
+        }
+    }
+
     private void checkIdentifier(DocStruct ds) {
 
         List<? extends Metadata> identifierDigitalList = ds.getAllMetadataByType(CATALOGIDDIGITAL_TYPE);
@@ -258,77 +404,124 @@ public class ImageNameImportPlugin implements IImportPlugin, IPlugin {
         // 2. convert
         // 3. Bilder kopieren
 
-        List<ImportObject> answer = new ArrayList<ImportObject>();
+        // validate all folders first and request the catalogue records of the valid records up front
+        Map<String, String> ppns = new LinkedHashMap<>();
         for (Record record : records) {
-            form.addProcessToProgressBar();
-            ImportObject io = new ImportObject();
             ppnAnalog = record.getId();
-            ppnDigital = getDigitalPPN();
-            if (ppnDigital.isEmpty()) {
+            String ppn = getDigitalPPN();
+            if (ppn.isEmpty()) {
+                form.addProcessToProgressBar();
                 continue;
             }
             String folder = ROOT_FOLDER.getAbsolutePath() + File.separator + ppnAnalog;
             List<String> validatedData = validate(folder);
-            if (!validatedData.isEmpty()) {
+            if (validatedData.isEmpty()) {
+                ppns.put(record.getId(), ppn);
+            } else {
+                form.addProcessToProgressBar();
                 logger.error(folder + " is not valid");
                 for (String value : validatedData) {
                     logger.error(value);
                 }
-            } else {
-                try {
-                    Fileformat fileformat = convertData();
+            }
+        }
+        BSZ_BodenseeImport_CatalogueGuard guard = new BSZ_BodenseeImport_CatalogueGuard(catalogueTimeout, catalogueBudget,
+                catalogueFailureThreshold);
+        ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor();
+        CompletionService<Fileformat> completionService = new ExecutorCompletionService<>(executor);
+        Map<Future<Fileformat>, String> pending = prefetchRecords(ppns, completionService, guard);
+        executor.shutdown();
 
-                    if (fileformat != null) {
+        // convert each record as soon as its catalogue record arrives, a slow answer does not hold back the records after it
+        Map<String, ImportObject> importObjects = new HashMap<>();
+        try {
+            for (int i = 0; i < pending.size(); i++) {
+                Future<Fileformat> result = completionService.take();
+                form.addProcessToProgressBar();
+                ppnAnalog = pending.get(result);
+                ppnDigital = ppns.get(ppnAnalog);
+                importObjects.put(ppnAnalog, generateImportObject(result));
+            }
+        } catch (InterruptedException e) {
+            logger.error("Import was interrupted after " + importObjects.size() + " records");
+            pending.keySet().forEach(result -> result.cancel(true));
+            Thread.currentThread().interrupt();
+        }
+
+        // return the import objects in the order of the records
+        List<ImportObject> answer = new ArrayList<ImportObject>();
+        for (Record record : records) {
+            ImportObject io = importObjects.get(record.getId());
+            if (io != null) {
+                answer.add(io);
+            }
+        }
+        return answer;
+    }
 
-                        DigitalDocument dd;
-                        try {
-                            dd = fileformat.getDigitalDocument();
-                            DocStructType docstructBoundBook = prefs.getDocStrctTypeByName("BoundBook");
-                            DocStruct physical = dd.createDocStruct(docstructBoundBook);
+    /**
+     * Convert the catalogue record of the current record, write its METS file and move its images
+     * 
+     * @param result the finished catalogue request of the current record
+     * @return the import object of the current record
+     */
+    private ImportObject generateImportObject(Future<Fileformat> result) {
+        ImportObject io = new ImportObject();
+        String fileName = getImportFolder() + ppnAnalog + ".xml";
+        try {
+            Fileformat fileformat = convertData(getPrefetchedRecord(result));
 
-                            Metadata pathimagefiles = new Metadata(prefs.getMetadataTypeByName("pathimagefiles"));
-                            pathimagefiles.setValue(ppnAnalog);
-                            physical.addMetadata(pathimagefiles);
+            if (fileformat != null) {
 
-                            dd.setPhysicalDocStruct(physical);
-                        } catch (PreferencesException | TypeNotAllowedForParentException | MetadataTypeNotAllowedException e1) {
-                            logger.error(e1);
-                        }
+                DigitalDocument dd;
+                try {
+                    dd = fileformat.getDigitalDocument();
+                    DocStructType docstructBoundBook = prefs.getDocStrctTypeByName("BoundBook");
+                    DocStruct physical = dd.createDocStruct(docstructBoundBook);
 
-                        try {
-                            MetsMods mm = new MetsMods(this.prefs);
-                            mm.setDigitalDocument(fileformat.getDigitalDocument());
-                            String fileName = getImportFolder() + ppnAnalog + ".xml";
-                            logger.debug("Writing '" + fileName + "' into given folder...");
-                            mm.write(fileName);
-                            io.setMetsFilename(fileName);
-                            io.setProcessTitle(getProcessTitle());
-                            io.setImportReturnValue(ImportReturnValue.ExportFinished);
-                            //                io.setProcessProperties(processProperties);
-                            //                io.setTemplateProperties(templateProperties);
-                            //                io.setWorkProperties(workProperties);
-
-                            moveData();
-
-                        } catch (PreferencesException e) {
-                            logger.error(e.getMessage(), e);
-                            io.setImportReturnValue(ImportReturnValue.InvalidData);
-                        } catch (WriteException e) {
-                            logger.error(e.getMessage(), e);
-                            io.setImportReturnValue(ImportReturnValue.WriteError);
-                        }
-                    } else {
-                        io.setImportReturnValue(ImportReturnValue.InvalidData);
-                    }
-                    answer.add(io);
+                    Metadata pathimagefiles = new Metadata(prefs.getMetadataTypeByName("pathimagefiles"));
+                    pathimagefiles.setValue(ppnAnalog);
+                    physical.addMetadata(pathimagefiles);
 
-                } catch (ImportPluginException e) {
-                    logger.error(e);
+                    dd.setPhysicalDocStruct(physical);
+                } catch (PreferencesException | TypeNotAllowedForParentException | MetadataTypeNotAllowedException e1) {
+                    logger.error(e1);
                 }
 
+                try {
+                    MetsMods mm = new MetsMods(this.prefs);
+                    mm.setDigitalDocument(fileformat.getDigitalDocument());
+                    logger.debug("Writing '" + fileName + "' into given folder...");
+                    mm.write(fileName);
+                    io.setMetsFilename(fileName);
+                    io.setProcessTitle(getProcessTitle());
+                    io.setImportReturnValue(ImportReturnValue.ExportFinished);
+                    //                io.setProcessProperties(processProperties);
+                    //                io.setTemplateProperties(templateProperties);
+                    //                io.setWorkProperties(workProperties);
+
+                    moveData();
+
+                } catch (PreferencesException e) {
+                    logger.error(e.getMessage(), e);
+                    io.setImportReturnValue(ImportReturnValue.InvalidData);
+                } catch (WriteException e) {
+                    logger.error(e.getMessage(), e);
+                    io.setImportReturnValue(ImportReturnValue.WriteError);
+                }
+            } else {
+                io.setImportReturnValue(ImportReturnValue.InvalidData);
             }
+
+        } catch (ImportPluginException e) {
+            logger.error(e);
+            // name the failed record like a successful one, so it can be found in the list of the mass import
+            io.setMetsFilename(fileName);
+            io.setProcessTitle(getProcessTitle());
+            io.setErrorMessage(e.getMessage());
+            io.setImportReturnValue(ImportReturnValue.InvalidData);
         }
-        return answer;
+        return io;
     }
 
     private String getDigitalPPN() {
@@ -884,9 +1077,16 @@ public class ImageNameImportPlugin implements IImportPlugin, IPlugin {
                 + IMAGE_FOLDER_EXTENSION);
         destination.mkdirs();
         try {
-            logger.info("copy data from " + imageFolder.getAbsolutePath() + " to " + destination.getAbsolutePath());
-            // TODO
-            org.apache.commons.io.FileUtils.copyDirectory(imageFolder, destination);
+            logger.info("stage data from " + imageFolder.getAbsolutePath() + " to " + destination.getAbsolutePath());
+            BSZ_BodenseeImport_ImageStager stager = new BSZ_BodenseeImport_ImageStager(stagingStrategy, copyThreads);
+            stager.setSkipIdentical(skipIdenticalImages);
+            stager.setVerifyContent(verifySkippedImages);
+            if (checksumManifest) {
+                stager.setManifestFolder(new File(getImportFolder() + File.separator + ppnAnalog).toPath());
+            }
+            stager.stageFolder(imageFolder.toPath(), destination.toPath());
+            stager.writeManifest();
+            stager.logSummary(getProcessTitle());
         } catch (Exception e) {
             logger.error(e);
         }
@@ -49,15 +49,8 @@ public class ImportBodenseeZeitschriften_bgwh implements IImportPluginVersion2,
 		bszHelper.prepare(prefs, ppn, importFolder, title);
 		bszHelper.setCreateIssues(createIssues);
 		
-		List<ImportObject> answer = new ArrayList<ImportObject>();
-		
-		// run through all selected records and start to prepare the import
-		for (Record record : records) {
-			// updatae the progress bar for each record
-			form.addProcessToProgressBar();
-			bszHelper.generateImportObject(answer, record);
-		}
-		return answer;
+		// run through all selected records and start to prepare the import, the progress bar is updated for each record
+		return bszHelper.generateImportObjects(records, form::addProcessToProgressBar);
 	}
 	
 	@Override
@@ -0,0 +1,379 @@
+package de.intranda.goobi.plugins.bsz;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HexFormat;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeSet;
+import java.util.WeakHashMap;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.commons.io.FileUtils;
+
+import de.sub.goobi.config.ConfigurationHelper;
+import lombok.Getter;
+import lombok.Setter;
+import lombok.extern.log4j.Log4j;
+import ugh.dl.DigitalDocument;
+import ugh.dl.DocStruct;
+import ugh.dl.DocStructType;
+import ugh.dl.Fileformat;
+import ugh.dl.MetadataType;
+import ugh.dl.Prefs;
+import ugh.fileformats.mets.MetsMods;
+
+/**
+ * Disk cache for the results of catalogue requests, shared by all import plugins of this module. Each result is stored as METS file named after the
+ * catalogue, the PPN and the ruleset, as the record is read and written with the ruleset. The ruleset is identified by its types and by the last
+ * modification of the ruleset files, so a changed ruleset never reads a record that was cached with the former one. Entries are used until their
+ * time to live is over, the least recently used entries are deleted as soon as the cache gets bigger than its maximum size. In offline mode the
+ * catalogue is never asked, all records are served from the cache regardless of their age. If the catalogue cannot be reached, an expired entry is
+ * used too. Each entry is written into a temp folder and moved into place, so a request never reads a half written entry.
+ */
+@Log4j
+public class BSZ_BodenseeImport_CatalogueCache {
+
+    private static final String FILE_EXTENSION = ".xml";
+    private static final String ANCHOR_FILE_EXTENSION = "_anchor.xml";
+
+    private static final BSZ_BodenseeImport_CatalogueCache INSTANCE = new BSZ_BodenseeImport_CatalogueCache();
+
+    // folder of the cached records
+    @Getter
+    private File folder = new File("/opt/digiverso/BSZ/opac_cache/");
+    // time to live of an entry in milliseconds
+    @Getter
+    @Setter
+    private long timeToLive = TimeUnit.DAYS.toMillis(7);
+    // maximum size of all entries in bytes
+    @Getter
+    @Setter
+    private long maximumSize = 256L * 1024 * 1024;
+    // serve only from the cache, never ask the catalogue
+    @Getter
+    @Setter
+    private boolean offline = false;
+    // set to false to always ask the catalogue
+    @Getter
+    @Setter
+    private boolean enabled = true;
+    // folder of the ruleset files, by default the ruleset folder of Goobi
+    @Setter
+    private File rulesetFolder;
+
+    // size of all entries in the order of their last use, the least recently used entry comes first
+    private Map<String, Long> entries;
+    private long size;
+    // identity of each ruleset that was used, computed once per ruleset object
+    private final Map<Prefs, String> rulesetKeys = new WeakHashMap<>();
+
+    /**
+     * Request to the catalogue that is done if the record is not cached
+     */
+    public interface Request {
+        Fileformat search() throws Exception;
+    }
+
+    private BSZ_BodenseeImport_CatalogueCache() {
+    }
+
+    public static BSZ_BodenseeImport_CatalogueCache getInstance() {
+        return INSTANCE;
+    }
+
+    /**
+     * Apply the cache settings of the plugin configuration, they are the same for all imports
+     *
+     * @param config the plugin configuration
+     */
+    public synchronized void configure(BSZ_BodenseeImport_Configuration config) {
+        enabled = config.getBoolean("cache/enabled", enabled);
+        offline = config.getBoolean("cache/offline", offline);
+        timeToLive = config.getLong("cache/timeToLive", timeToLive);
+        maximumSize = config.getLong("cache/maximumSize", maximumSize);
+        File configuredFolder = new File(config.getString("cache/folder", folder.getPath()));
+        if (!configuredFolder.equals(folder)) {
+            setFolder(configuredFolder);
+        }
+    }
+
+    public synchronized void setFolder(File folder) {
+        this.folder = folder;
+        // the entries of the new folder are read with the next request
+        entries = null;
+    }
+
+    /**
+     * Get the record for the given PPN from the cache or from the catalogue. Records that are requested from the catalogue are stored in the cache.
+     *
+     * @param catalogue the name of the catalogue
+     * @param ppn the identifier to search for
+     * @param prefs the ruleset to read and write the cached record
+     * @param request the request to the catalogue if the record is not cached
+     * @return the record, or null if the catalogue did not find it
+     * @throws Exception if the catalogue request failed and the record is not cached, or if the record is not cached in offline mode
+     */
+    public Fileformat search(String catalogue, String ppn, Prefs prefs, Request request) throws Exception {
+        if (!enabled) {
+            return request.search();
+        }
+        String name = getName(catalogue, ppn, getRulesetKey(prefs));
+        File file = new File(folder, name + FILE_EXTENSION);
+        boolean cached = isCached(name, file);
+        if (cached && (offline || System.currentTimeMillis() - file.lastModified() < timeToLive)) {
+            Fileformat record = read(name, file, prefs);
+            if (record != null) {
+                return record;
+            }
+            cached = false;
+        }
+        if (offline) {
+            throw new IllegalStateException("The record " + ppn + " of catalogue " + catalogue + " is not cached and the catalogue is offline");
+        }
+
+        Fileformat record;
+        try {
+            record = request.search();
+        } catch (Exception e) {
+            if (cached) {
+                // better an old record than none
+                log.warn("Catalogue request for " + ppn + " failed, using the expired cached record", e);
+                Fileformat expired = read(name, file, prefs);
+                if (expired != null) {
+                    return expired;
+                }
+            }
+            throw e;
+        }
+        if (record != null) {
+            write(name, file, record, prefs);
+        }
+        return record;
+    }
+
+    private synchronized boolean isCached(String name, File file) {
+        loadEntries();
+        return entries.containsKey(name) && file.exists();
+    }
+
+    private Fileformat read(String name, File file, Prefs prefs) {
+        long modified = file.lastModified();
+        try {
+            MetsMods mm = new MetsMods(prefs);
+            mm.read(file.getAbsolutePath());
+            // the physical structure was only added to write the record, it is not part of a record that comes from the catalogue
+            DigitalDocument dd = mm.getDigitalDocument();
+            DocStruct physical = dd.getPhysicalDocStruct();
+            if (physical != null && isEmpty(physical.getAllChildren()) && isEmpty(physical.getAllMetadata())) {
+                dd.setPhysicalDocStruct(null);
+            }
+            synchronized (this) {
+                // move the entry to the end of the access order
+                loadEntries();
+                Long entrySize = entries.remove(name);
+                if (entrySize != null) {
+                    entries.put(name, entrySize);
+                }
+            }
+            return mm;
+        } catch (Exception e) {
+            synchronized (this) {
+                // an entry that was written again in the meantime is kept
+                if (file.lastModified() == modified) {
+                    log.warn("Cached record " + file.getAbsolutePath() + " cannot be read and gets deleted", e);
+                    remove(name);
+                } else {
+                    log.debug("Cached record " + file.getAbsolutePath() + " was replaced while it was read", e);
+                }
+            }
+            return null;
+        }
+    }
+
+    private static boolean isEmpty(List<?> list) {
+        return list == null || list.isEmpty();
+    }
+
+    private void write(String name, File file, Fileformat record, Prefs prefs) {
+        Path tempFolder = null;
+        try {
+            // write a copy, as a physical structure is added which must not be part of the returned record, it is removed again when the entry is
+            // read
+            DigitalDocument dd = record.getDigitalDocument().copyDigitalDocument();
+            if (dd.getPhysicalDocStruct() == null) {
+                DocStructType boundBook = prefs.getDocStrctTypeByName("BoundBook");
+                DocStruct physical = dd.createDocStruct(boundBook);
+                dd.setPhysicalDocStruct(physical);
+            }
+            MetsMods mm = new MetsMods(prefs);
+            mm.setDigitalDocument(dd);
+            // the files of the entry are written into a folder of their own and moved into place afterwards
+            folder.mkdirs();
+            tempFolder = Files.createTempDirectory(folder.toPath(), "." + name);
+            File tempFile = new File(tempFolder.toFile(), file.getName());
+            mm.write(tempFile.getAbsolutePath());
+            File tempAnchorFile = new File(tempFolder.toFile(), getAnchorFile(name).getName());
+            synchronized (this) {
+                loadEntries();
+                Long oldSize = entries.remove(name);
+                if (oldSize != null) {
+                    size -= oldSize;
+                }
+                if (tempAnchorFile.exists()) {
+                    Files.move(tempAnchorFile.toPath(), getAnchorFile(name).toPath(), StandardCopyOption.REPLACE_EXISTING,
+                            StandardCopyOption.ATOMIC_MOVE);
+                } else {
+                    getAnchorFile(name).delete();
+                }
+                Files.move(tempFile.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+                long entrySize = file.length() + getAnchorFile(name).length();
+                entries.put(name, entrySize);
+                size += entrySize;
+                evict();
+            }
+        } catch (Exception e) {
+            log.warn("Record " + name + " cannot be stored in the catalogue cache", e);
+            synchronized (this) {
+                remove(name);
+            }
+        } finally {
+            if (tempFolder != null) {
+                FileUtils.deleteQuietly(tempFolder.toFile());
+            }
+        }
+    }
+
+    /**
+     * Delete the least recently used entries until the cache is not bigger than its maximum size anymore
+     */
+    private void evict() {
+        Iterator<String> iterator = new ArrayList<>(entries.keySet()).iterator();
+        while (size > maximumSize && iterator.hasNext()) {
+            remove(iterator.next());
+        }
+    }
+
+    private void remove(String name) {
+        loadEntries();
+        Long entrySize = entries.remove(name);
+        if (entrySize != null) {
+            size -= entrySize;
+        }
+        new File(folder, name + FILE_EXTENSION).delete();
+        getAnchorFile(name).delete();
+    }
+
+    /**
+     * Read the existing entries from the folder, ordered by the time of their creation as the order of their last use is not stored
+     */
+    private void loadEntries() {
+        if (entries != null) {
+            return;
+        }
+        entries = new LinkedHashMap<>();
+        size = 0;
+        File[] files = folder.listFiles((dir, fileName) -> fileName.endsWith(FILE_EXTENSION) && !fileName.endsWith(ANCHOR_FILE_EXTENSION));
+        if (files == null) {
+            return;
+        }
+        List<File> list = Arrays.asList(files);
+        list.sort(Comparator.comparingLong(File::lastModified));
+        for (File file : list) {
+            String name = file.getName().substring(0, file.getName().length() - FILE_EXTENSION.length());
+            long entrySize = file.length() + getAnchorFile(name).length();
+            entries.put(name, entrySize);
+            size += entrySize;
+        }
+        evict();
+    }
+
+    private File getAnchorFile(String name) {
+        return new File(folder, name + ANCHOR_FILE_EXTENSION);
+    }
+
+    /**
+     * @return the name of the cache entry, only letters, digits, dashes and underscores are kept
+     */
+    private static String getName(String catalogue, String ppn, String rulesetKey) {
+        return (catalogue + "_" + ppn + "_" + rulesetKey).replaceAll("[^\\w\\-]", "_");
+    }
+
+    /**
+     * Method to identify the ruleset of a request. The ruleset object does not know its file, so the names of all its types and the latest
+     * modification of the files in the ruleset folder of Goobi are hashed.
+     *
+     * @param prefs the ruleset
+     * @return a short hex string that changes with the ruleset
+     */
+    private String getRulesetKey(Prefs prefs) {
+        String types;
+        synchronized (rulesetKeys) {
+            types = rulesetKeys.computeIfAbsent(prefs, BSZ_BodenseeImport_CatalogueCache::getTypeNames);
+        }
+        MessageDigest md;
+        try {
+            md = MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            // every Java platform has to support SHA-256
+            throw new IllegalStateException(e);
+        }
+        md.update(types.getBytes(StandardCharsets.UTF_8));
+        md.update(Long.toString(getRulesetModification()).getBytes(StandardCharsets.UTF_8));
+        return HexFormat.of().formatHex(md.digest(), 0, 8);
+    }
+
+    /**
+     * @return the names of all structure types with their metadata types and of all metadata types, sorted
+     */
+    private static String getTypeNames(Prefs prefs) {
+        TreeSet<String> names = new TreeSet<>();
+        if (prefs.getAllDocStructTypes() != null) {
+            for (DocStructType type : prefs.getAllDocStructTypes()) {
+                StringBuilder name = new StringBuilder(type.getName()).append(':');
+                if (type.getAllMetadataTypes() != null) {
+                    for (MetadataType metadataType : type.getAllMetadataTypes()) {
+                        name.append(metadataType.getName()).append(',');
+                    }
+                }
+                names.add(name.toString());
+            }
+        }
+        if (prefs.getAllMetadataTypes() != null) {
+            for (MetadataType type : prefs.getAllMetadataTypes()) {
+                names.add(type.getName());
+            }
+        }
+        return String.join("\n", names);
+    }
+
+    /**
+     * @return the latest modification time of the ruleset files, 0 if the ruleset folder cannot be read
+     */
+    private long getRulesetModification() {
+        try {
+            File folder = rulesetFolder != null ? rulesetFolder : new File(ConfigurationHelper.getInstance().getRulesetFolder());
+            File[] rulesets = folder.listFiles((dir, fileName) -> fileName.endsWith(".xml"));
+            long latest = 0;
+            if (rulesets != null) {
+                for (File ruleset : rulesets) {
+                    latest = Math.max(latest, ruleset.lastModified());
+                }
+            }
+            return latest;
+        } catch (RuntimeException e) {
+            log.debug("Ruleset folder cannot be read", e);
+            return 0;
+        }
+    }
+}
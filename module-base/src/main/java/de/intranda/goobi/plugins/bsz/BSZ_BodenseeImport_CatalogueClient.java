@@ -0,0 +1,137 @@
+package de.intranda.goobi.plugins.bsz;
+
+import java.io.File;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.goobi.production.enums.PluginType;
+import org.goobi.production.plugin.PluginLoader;
+import org.goobi.production.plugin.interfaces.IOpacPlugin;
+
+import de.sub.goobi.config.ConfigurationHelper;
+import de.unigoettingen.sub.search.opac.ConfigOpac;
+import de.unigoettingen.sub.search.opac.ConfigOpacCatalogue;
+import lombok.extern.log4j.Log4j;
+import ugh.dl.Fileformat;
+import ugh.dl.Prefs;
+
+/**
+ * Client for one catalogue, shared by all import plugins of this module. The catalogue configuration and the OPAC plugin are resolved only once and
+ * used for all requests, they are resolved again only if the OPAC configuration file was changed. As the OPAC plugins are not meant to be used by
+ * several threads at the same time, each concurrent request gets its own plugin instance, the instances are reused for later requests. All requests
+ * go through the {@link BSZ_BodenseeImport_CatalogueCache}.
+ */
+@Log4j
+public class BSZ_BodenseeImport_CatalogueClient {
+
+    private static final String CONFIG_FILE_NAME = "goobi_opac.xml";
+
+    private static final Map<String, BSZ_BodenseeImport_CatalogueClient> CLIENTS = new ConcurrentHashMap<>();
+
+    private final String catalogue;
+    private ConfigOpacCatalogue coc;
+    private IOpacPlugin opacPlugin;
+    // plugin instances that are not used by a request at the moment
+    private final Deque<IOpacPlugin> idlePlugins = new ArrayDeque<>();
+    private long configModified;
+
+    private BSZ_BodenseeImport_CatalogueClient(String catalogue) {
+        this.catalogue = catalogue;
+    }
+
+    /**
+     * Get the shared client for the given catalogue
+     *
+     * @param catalogue the name of the catalogue in the OPAC configuration
+     * @return the client of this catalogue
+     */
+    public static BSZ_BodenseeImport_CatalogueClient getInstance(String catalogue) {
+        return CLIENTS.computeIfAbsent(catalogue, BSZ_BodenseeImport_CatalogueClient::new);
+    }
+
+    /**
+     * Search the record with the given PPN, it is read from the cache if possible. The request uses the default limits of
+     * {@link BSZ_BodenseeImport_CatalogueGuard}.
+     *
+     * @param ppn the identifier to search for
+     * @param prefs the ruleset to use
+     * @return the record, or null if the catalogue did not find it
+     * @throws Exception if the catalogue cannot be asked
+     */
+    public Fileformat search(String ppn, Prefs prefs) throws Exception {
+        return search(ppn, prefs, BSZ_BodenseeImport_CatalogueGuard.withDefaults());
+    }
+
+    /**
+     * Search the record with the given PPN, it is read from the cache if possible. A request to the catalogue is done within the limits of the
+     * given guard of the import run.
+     *
+     * @param ppn the identifier to search for
+     * @param prefs the ruleset to use
+     * @param guard the limits of the current import run
+     * @return the record, or null if the catalogue did not find it
+     * @throws Exception if the catalogue cannot be asked
+     */
+    public Fileformat search(String ppn, Prefs prefs, BSZ_BodenseeImport_CatalogueGuard guard) throws Exception {
+        return BSZ_BodenseeImport_CatalogueCache.getInstance().search(catalogue, ppn, prefs, () -> guard.search(ppn, () -> {
+            ConfigOpacCatalogue currentCoc;
+            IOpacPlugin currentPlugin;
+            synchronized (this) {
+                resolve();
+                currentCoc = coc;
+                currentPlugin = idlePlugins.poll();
+            }
+            if (currentPlugin == null) {
+                currentPlugin = createPlugin(currentCoc);
+            }
+            try {
+                return currentPlugin.search("12", ppn, currentCoc, prefs);
+            } finally {
+                synchronized (this) {
+                    // instances of an outdated configuration are dropped
+                    if (currentCoc == coc) {
+                        idlePlugins.push(currentPlugin);
+                    }
+                }
+            }
+        }));
+    }
+
+    /**
+     * @return the OPAC plugin of this catalogue, e.g. to create the title abbreviation of a record
+     */
+    public synchronized IOpacPlugin getOpacPlugin() {
+        resolve();
+        return opacPlugin;
+    }
+
+    /**
+     * Resolve the catalogue configuration and the OPAC plugin if this was not done yet or if the configuration file was changed since
+     */
+    private void resolve() {
+        long modified = getConfigFile().lastModified();
+        if (opacPlugin == null || modified != configModified) {
+            if (opacPlugin != null) {
+                log.info("OPAC configuration was changed, catalogue " + catalogue + " is resolved again");
+            }
+            coc = ConfigOpac.getInstance().getCatalogueByName(catalogue);
+            if (coc == null) {
+                throw new IllegalStateException("Catalogue " + catalogue + " is not configured");
+            }
+            // this instance is not used for searches, so it can be handed out for the helper methods of the plugin
+            opacPlugin = createPlugin(coc);
+            idlePlugins.clear();
+            configModified = modified;
+        }
+    }
+
+    private static IOpacPlugin createPlugin(ConfigOpacCatalogue coc) {
+        return (IOpacPlugin) PluginLoader.getPluginByTitle(PluginType.Opac, coc.getOpacType());
+    }
+
+    private static File getConfigFile() {
+        return new File(ConfigurationHelper.getInstance().getConfigurationFolder(), CONFIG_FILE_NAME);
+    }
+}
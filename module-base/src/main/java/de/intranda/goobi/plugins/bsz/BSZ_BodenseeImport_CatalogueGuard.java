@@ -0,0 +1,118 @@
+package de.intranda.goobi.plugins.bsz;
+
+import java.io.IOException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import lombok.Getter;
+import ugh.dl.Fileformat;
+
+/**
+ * Limits for the catalogue requests of one import run. Each request has to answer within a timeout, all requests of the run together must not take
+ * longer than the time budget of the run. Only the measured time of the requests themselves is counted, the time the import spends on anything else
+ * does not use up the budget. After a number of failed requests in a row the catalogue is considered unavailable, all further requests of the run
+ * fail immediately instead of waiting for their timeout each.
+ */
+public class BSZ_BodenseeImport_CatalogueGuard {
+
+    public static final long DEFAULT_CALL_TIMEOUT = TimeUnit.SECONDS.toMillis(60);
+    public static final long DEFAULT_TOTAL_BUDGET = TimeUnit.MINUTES.toMillis(30);
+    public static final int DEFAULT_FAILURE_THRESHOLD = 3;
+
+    private final long callTimeout;
+    private final long totalBudget;
+    private final int failureThreshold;
+
+    // sum of the time of all finished requests of this run in milliseconds
+    @Getter
+    private long usedTime;
+
+    private int consecutiveFailures;
+    // the breaker stays open for the rest of the run
+    @Getter
+    private volatile boolean open;
+
+    /**
+     * Start the limits of a new import run
+     *
+     * @param callTimeout maximum time of a single request in milliseconds
+     * @param totalBudget maximum sum of the time of all requests of this run in milliseconds
+     * @param failureThreshold number of failed requests in a row after that the catalogue is not asked anymore
+     */
+    public BSZ_BodenseeImport_CatalogueGuard(long callTimeout, long totalBudget, int failureThreshold) {
+        this.callTimeout = callTimeout;
+        this.totalBudget = totalBudget;
+        this.failureThreshold = Math.max(1, failureThreshold);
+    }
+
+    /**
+     * @return the limits of a new import run with the default values
+     */
+    public static BSZ_BodenseeImport_CatalogueGuard withDefaults() {
+        return new BSZ_BodenseeImport_CatalogueGuard(DEFAULT_CALL_TIMEOUT, DEFAULT_TOTAL_BUDGET, DEFAULT_FAILURE_THRESHOLD);
+    }
+
+    /**
+     * Run a catalogue request within the limits of this run. The request runs in its own virtual thread, so that a hanging request can be left
+     * behind after its timeout.
+     *
+     * @param ppn the requested identifier, used for the messages
+     * @param request the request to run
+     * @return the result of the request
+     * @throws IOException if the request failed or timed out, or if the catalogue is not asked anymore in this run
+     */
+    public Fileformat search(String ppn, BSZ_BodenseeImport_CatalogueCache.Request request) throws IOException {
+        long timeout;
+        synchronized (this) {
+            if (open) {
+                throw new IOException("Catalogue is not available, it was not asked for " + ppn + " after " + failureThreshold
+                        + " failed requests in a row");
+            }
+            long remaining = totalBudget - usedTime;
+            if (remaining <= 0) {
+                throw new IOException("Time budget for catalogue requests of this import is used up, it was not asked for " + ppn);
+            }
+            timeout = Math.min(callTimeout, remaining);
+        }
+
+        FutureTask<Fileformat> task = new FutureTask<>(request::search);
+        long start = System.nanoTime();
+        Thread.ofVirtual().name("catalogue-request-" + ppn).start(task);
+        try {
+            Fileformat result = task.get(timeout, TimeUnit.MILLISECONDS);
+            success(start);
+            return result;
+        } catch (TimeoutException e) {
+            task.cancel(true);
+            failure(start);
+            throw new IOException("Catalogue request for " + ppn + " did not answer within " + timeout + " ms");
+        } catch (ExecutionException e) {
+            failure(start);
+            throw new IOException("Catalogue request for " + ppn + " failed: " + e.getCause().getMessage(), e.getCause());
+        } catch (InterruptedException e) {
+            task.cancel(true);
+            addUsedTime(start);
+            Thread.currentThread().interrupt();
+            throw new IOException("Catalogue request for " + ppn + " was interrupted");
+        }
+    }
+
+    private synchronized void addUsedTime(long start) {
+        usedTime += TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+    }
+
+    private synchronized void success(long start) {
+        addUsedTime(start);
+        consecutiveFailures = 0;
+    }
+
+    private synchronized void failure(long start) {
+        addUsedTime(start);
+        consecutiveFailures++;
+        if (consecutiveFailures >= failureThreshold) {
+            open = true;
+        }
+    }
+}
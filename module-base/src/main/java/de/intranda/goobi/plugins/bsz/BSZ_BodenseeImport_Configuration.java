@@ -0,0 +1,87 @@
+package de.intranda.goobi.plugins.bsz;
+
+import org.apache.commons.configuration.XMLConfiguration;
+import org.apache.commons.configuration.tree.xpath.XPathExpressionEngine;
+
+import de.sub.goobi.config.ConfigPlugins;
+import lombok.extern.log4j.Log4j;
+
+/**
+ * Settings of the import plugins of this module, read from the plugin configuration file plugin_intranda_import_bsz.xml in the configuration folder
+ * of Goobi. Each setting can be given for all imports and overridden for a single import in an element &lt;import name="..."&gt;, where the name is
+ * the basic name of a journal (e.g. aglv) or ImageNameImportPlugin. A missing file or a missing setting keeps the default value of the plugin. An
+ * example with all settings is part of the install folder of this repository.
+ */
+@Log4j
+public class BSZ_BodenseeImport_Configuration {
+
+    public static final String PLUGIN_CONFIG_NAME = "intranda_import_bsz";
+
+    private final XMLConfiguration config;
+    private final String name;
+
+    private BSZ_BodenseeImport_Configuration(XMLConfiguration config, String name) {
+        this.config = config;
+        this.name = name;
+    }
+
+    /**
+     * Read the current plugin configuration
+     *
+     * @param name the name of the import whose overrides are used, or null for the settings that are the same for all imports
+     * @return the settings of this import
+     */
+    public static BSZ_BodenseeImport_Configuration load(String name) {
+        XMLConfiguration config = null;
+        try {
+            config = ConfigPlugins.getPluginConfig(PLUGIN_CONFIG_NAME);
+            if (config != null) {
+                config.setExpressionEngine(new XPathExpressionEngine());
+            }
+        } catch (RuntimeException e) {
+            log.warn("Plugin configuration " + PLUGIN_CONFIG_NAME + " cannot be read, the default settings are used", e);
+        }
+        return new BSZ_BodenseeImport_Configuration(config, name);
+    }
+
+    /**
+     * @param key the path of the setting, e.g. images/strategy
+     * @param defaultValue the value if the setting is missing
+     * @return the value for this import, the general value or the default value
+     */
+    public String getString(String key, String defaultValue) {
+        if (config == null) {
+            return defaultValue;
+        }
+        String value = null;
+        if (name != null) {
+            value = config.getString("import[@name='" + name + "']/" + key, null);
+        }
+        if (value == null) {
+            value = config.getString(key, null);
+        }
+        return value == null || value.trim().isEmpty() ? defaultValue : value.trim();
+    }
+
+    public boolean getBoolean(String key, boolean defaultValue) {
+        String value = getString(key, null);
+        return value == null ? defaultValue : Boolean.parseBoolean(value);
+    }
+
+    public int getInt(String key, int defaultValue) {
+        return (int) getLong(key, defaultValue);
+    }
+
+    public long getLong(String key, long defaultValue) {
+        String value = getString(key, null);
+        if (value == null) {
+            return defaultValue;
+        }
+        try {
+            return Long.parseLong(value);
+        } catch (NumberFormatException e) {
+            log.warn("Setting " + key + " of " + PLUGIN_CONFIG_NAME + " is no number: " + value + ", " + defaultValue + " is used");
+            return defaultValue;
+        }
+    }
+}
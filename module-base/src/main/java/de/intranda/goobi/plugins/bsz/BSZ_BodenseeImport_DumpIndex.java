@@ -0,0 +1,156 @@
+package de.intranda.goobi.plugins.bsz;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import lombok.Getter;
+
+/**
+ * In-memory index of a parsed sql dump. All rows of the dump are grouped by the year/issue key that is used as record identifier in the mass import
+ * GUI, so that the rows of one record can be found with a simple lookup instead of parsing the whole dump again. The rows are kept in a compact
+ * {@link BSZ_BodenseeImport_PageTable}.
+ */
+public class BSZ_BodenseeImport_DumpIndex {
+
+    @Getter
+    private File sqlFile;
+    @Getter
+    private long fileLength;
+    @Getter
+    private long lastModified;
+
+    private Map<String, BSZ_BodenseeImport_PageTable> groups = new LinkedHashMap<>();
+    // content hash of each group, see BSZ_BodenseeImport_GroupHashes
+    @Getter
+    private Map<String, String> hashes;
+
+    private BSZ_BodenseeImport_DumpIndex(File sqlFile) {
+        this.sqlFile = sqlFile;
+        this.fileLength = sqlFile.length();
+        this.lastModified = sqlFile.lastModified();
+    }
+
+    /**
+     * Read the given sql file in one single pass and group all rows by their year/issue key
+     *
+     * @param sqlFile the sql dump to read, may be compressed
+     * @param separateBookletIds true if the booklet id is part of the key
+     * @return the new index
+     * @throws IOException
+     */
+    public static BSZ_BodenseeImport_DumpIndex build(File sqlFile, boolean separateBookletIds) throws IOException {
+        return build(sqlFile, separateBookletIds, 1);
+    }
+
+    /**
+     * Read the given sql file and group all rows by their year/issue key. Uncompressed files are parsed in parallel with the given number of threads,
+     * the result is the same as for a sequential parse.
+     *
+     * @param sqlFile the sql dump to read, may be compressed
+     * @param separateBookletIds true if the booklet id is part of the key
+     * @param parallelism number of threads to use for parsing
+     * @return the new index
+     * @throws IOException
+     */
+    public static BSZ_BodenseeImport_DumpIndex build(File sqlFile, boolean separateBookletIds, int parallelism) throws IOException {
+        BSZ_BodenseeImport_DumpIndex index = new BSZ_BodenseeImport_DumpIndex(sqlFile);
+        BSZ_BodenseeImport_PageTable.Builder builder = new BSZ_BodenseeImport_PageTable.Builder();
+        BSZ_BodenseeImport_GroupHashes groupHashes = new BSZ_BodenseeImport_GroupHashes();
+        if (parallelism > 1 && !BSZ_BodenseeImport_DumpSource.isCompressed(sqlFile)) {
+            List<Part> results = new BSZ_BodenseeImport_ParallelParser(sqlFile, parallelism)
+                    .parse(new BSZ_BodenseeImport_ParallelParser.PartHandler<Part>() {
+                        @Override
+                        public Part createResult() {
+                            return new Part();
+                        }
+
+                        @Override
+                        public void add(Part result, BSZ_BodenseeImport_MappedReader reader, BSZ_BodenseeImport_Element element) {
+                            result.elements.add(element);
+                            result.hashes.add(getKey(element, separateBookletIds), element);
+                        }
+                    });
+            // append the parts in the order of the file to get the same order as a sequential parse
+            for (Part result : results) {
+                for (BSZ_BodenseeImport_Element element : result.elements) {
+                    builder.add(element);
+                }
+                groupHashes.addAll(result.hashes);
+            }
+        } else {
+            BSZ_BodenseeImport_SqlParser parser = new BSZ_BodenseeImport_SqlParser(element -> {
+                builder.add(element);
+                groupHashes.add(getKey(element, separateBookletIds), element);
+            });
+            try (BufferedReader reader = BSZ_BodenseeImport_DumpSource.openReader(sqlFile)) {
+                String line;
+                while ((line = reader.readLine()) != null) {
+                    parser.parseLine(line);
+                }
+            }
+        }
+        // the elements are not kept, only the compact table with the rows of each group sorted by the image name
+        index.groups = builder.build().group(separateBookletIds);
+        index.hashes = groupHashes.getHashes();
+        return index;
+    }
+
+    /**
+     * Elements and group hashes of one part of a dump that is parsed in parallel
+     */
+    private static class Part {
+        private final List<BSZ_BodenseeImport_Element> elements = new ArrayList<>();
+        private final BSZ_BodenseeImport_GroupHashes hashes = new BSZ_BodenseeImport_GroupHashes();
+    }
+
+    /**
+     * Generate the year/issue key for an element as it is used as record identifier in the mass import GUI
+     *
+     * @param element the element to generate the key for
+     * @param separateBookletIds true if the booklet id shall be part of the key
+     * @return the key in the form jahr[_issue][_bookletid]
+     */
+    public static String getKey(BSZ_BodenseeImport_Element element, boolean separateBookletIds) {
+        return element.getKey(separateBookletIds);
+    }
+
+    /**
+     * Check if the sql file was changed since the index was built
+     *
+     * @return true if the index does not reflect the current file anymore
+     */
+    public boolean isStale() {
+        return sqlFile.length() != fileLength || sqlFile.lastModified() != lastModified;
+    }
+
+    /**
+     * Get an ordered list of all keys of this index
+     *
+     * @return sorted list of all year/issue keys
+     */
+    public List<String> getKeys() {
+        List<String> keys = new ArrayList<>(groups.keySet());
+        Collections.sort(keys);
+        return keys;
+    }
+
+    /**
+     * Get all pages for the given key, ordered by the image name
+     *
+     * @param key the year/issue key to search for
+     * @return ordered table of pages, empty if the key is unknown
+     */
+    public BSZ_BodenseeImport_PageTable getPages(String key) {
+        BSZ_BodenseeImport_PageTable pages = groups.get(key);
+        if (pages == null) {
+            return BSZ_BodenseeImport_PageTable.empty();
+        }
+        return pages;
+    }
+}
@@ -0,0 +1,165 @@
+package de.intranda.goobi.plugins.bsz;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.InterruptedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * Access to the sql dump of a journal, which may be stored uncompressed (name.sql) or compressed (name.sql.gz or name.sql.zst). Compressed dumps
+ * are decompressed while reading, so that neither the compressed nor the decompressed file is ever completely held in memory. Zstandard files are
+ * decompressed by the external zstd command, as the Java libraries for it need native code that is not part of Goobi.
+ */
+public class BSZ_BodenseeImport_DumpSource {
+
+    public static final String GZIP_EXTENSION = ".gz";
+    public static final String ZSTD_EXTENSION = ".zst";
+
+    // command to decompress Zstandard dumps, it must be installed on the Goobi server
+    static final String ZSTD_COMMAND = "zstd";
+
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    private BSZ_BodenseeImport_DumpSource() {
+    }
+
+    /**
+     * Find the dump for the given path of the uncompressed sql file. The uncompressed file is used if it exists, otherwise a compressed one.
+     *
+     * @param sqlFileName the path of the uncompressed sql file
+     * @return the existing dump file or the uncompressed one if no dump exists at all
+     */
+    public static File find(String sqlFileName) {
+        File sqlFile = new File(sqlFileName);
+        if (sqlFile.exists()) {
+            return sqlFile;
+        }
+        for (String extension : new String[] { GZIP_EXTENSION, ZSTD_EXTENSION }) {
+            File compressed = new File(sqlFileName + extension);
+            if (compressed.exists()) {
+                return compressed;
+            }
+        }
+        return sqlFile;
+    }
+
+    /**
+     * @param dumpFile the dump to check
+     * @return true if the dump is compressed and therefore cannot be read with random access
+     */
+    public static boolean isCompressed(File dumpFile) {
+        String name = dumpFile.getName();
+        return name.endsWith(GZIP_EXTENSION) || name.endsWith(ZSTD_EXTENSION);
+    }
+
+    /**
+     * Open a stream of the uncompressed content of the dump
+     *
+     * @param dumpFile the dump to read
+     * @return stream of the uncompressed dump
+     * @throws IOException
+     */
+    public static InputStream open(File dumpFile) throws IOException {
+        String name = dumpFile.getName();
+        if (name.endsWith(GZIP_EXTENSION)) {
+            return new GZIPInputStream(Files.newInputStream(dumpFile.toPath()), BUFFER_SIZE);
+        }
+        if (name.endsWith(ZSTD_EXTENSION)) {
+            return openZstd(dumpFile);
+        }
+        return Files.newInputStream(dumpFile.toPath());
+    }
+
+    /**
+     * Open a reader of the uncompressed content of the dump
+     *
+     * @param dumpFile the dump to read
+     * @return UTF-8 reader of the uncompressed dump
+     * @throws IOException
+     */
+    public static BufferedReader openReader(File dumpFile) throws IOException {
+        return new BufferedReader(new InputStreamReader(open(dumpFile), StandardCharsets.UTF_8), BUFFER_SIZE);
+    }
+
+    private static InputStream openZstd(File dumpFile) throws IOException {
+        return openZstd(dumpFile, ZSTD_COMMAND);
+    }
+
+    /**
+     * Start the given zstd command to decompress the dump. The exit code of the command is checked as soon as the end of its output is reached, so
+     * a broken dump is not taken as a shorter one.
+     *
+     * @param dumpFile the Zstandard compressed dump
+     * @param command the zstd command
+     * @return stream of the uncompressed dump
+     * @throws IOException if the command cannot be started
+     */
+    static InputStream openZstd(File dumpFile, String command) throws IOException {
+        ProcessBuilder builder = new ProcessBuilder(command, "--decompress", "--stdout", "--quiet", dumpFile.getAbsolutePath());
+        builder.redirectError(ProcessBuilder.Redirect.INHERIT);
+        Process process;
+        try {
+            process = builder.start();
+        } catch (IOException e) {
+            throw new IOException("The dump " + dumpFile.getAbsolutePath() + " is compressed with Zstandard, but the command '" + command
+                    + "' to decompress it cannot be started. Install zstd on the Goobi server or provide the dump as .sql or .sql.gz: "
+                    + e.getMessage(), e);
+        }
+        process.getOutputStream().close();
+        return new FilterInputStream(process.getInputStream()) {
+            private boolean finished;
+
+            @Override
+            public int read() throws IOException {
+                int value = super.read();
+                if (value < 0) {
+                    checkExitCode();
+                }
+                return value;
+            }
+
+            @Override
+            public int read(byte[] buffer, int offset, int length) throws IOException {
+                int count = super.read(buffer, offset, length);
+                if (count < 0) {
+                    checkExitCode();
+                }
+                return count;
+            }
+
+            @Override
+            public void close() throws IOException {
+                super.close();
+                if (!finished) {
+                    // the dump was not read to its end, the exit code of the stopped command does not matter
+                    finished = true;
+                    process.destroy();
+                }
+            }
+
+            private void checkExitCode() throws IOException {
+                if (finished) {
+                    return;
+                }
+                finished = true;
+                try {
+                    int exitCode = process.waitFor();
+                    if (exitCode != 0) {
+                        throw new IOException("zstd failed with exit code " + exitCode + " for " + dumpFile.getAbsolutePath()
+                                + ", the dump is broken or not compressed with Zstandard");
+                    }
+                } catch (InterruptedException e) {
+                    process.destroy();
+                    Thread.currentThread().interrupt();
+                    throw new InterruptedIOException("Interrupted while waiting for zstd to finish " + dumpFile.getAbsolutePath());
+                }
+            }
+        };
+    }
+}
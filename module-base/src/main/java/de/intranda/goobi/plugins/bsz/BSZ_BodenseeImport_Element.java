@@ -3,30 +3,86 @@ package de.intranda.goobi.plugins.bsz;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
-import lombok.Data;
-
-@Data
-public class BSZ_BodenseeImport_Element implements Comparable<BSZ_BodenseeImport_Element>{
-	private String pageid;
-	private String bookletid;
-	private String journalid;
-	private String lfnr;
-	private String jahr;
-	private String label;
-	private String jpg;
-	
+import org.apache.commons.lang.StringUtils;
+
+import lombok.EqualsAndHashCode;
+import lombok.Getter;
+import lombok.ToString;
+
+/**
+ * One row of the sql dump, the values that are needed again and again (issue number, year/issue key and sort key) are calculated once when the
+ * element is created
+ */
+@Getter
+@ToString
+@EqualsAndHashCode
+public final class BSZ_BodenseeImport_Element implements Comparable<BSZ_BodenseeImport_Element>{
+	private static final Pattern ISSUE_END_PATTERN = Pattern.compile("-[a-z]", Pattern.CASE_INSENSITIVE);
+
+	private final String pageid;
+	private final String bookletid;
+	private final String journalid;
+	private final String lfnr;
+	private final String jahr;
+	private final String label;
+	private final String jpg;
+
+	@ToString.Exclude
+	@EqualsAndHashCode.Exclude
+	private final String issueNumber;
+	@ToString.Exclude
+	@EqualsAndHashCode.Exclude
+	private final boolean numericIssue;
+	@ToString.Exclude
+	@EqualsAndHashCode.Exclude
+	private final String key;
+	@ToString.Exclude
+	@EqualsAndHashCode.Exclude
+	private final String sortKey;
+
+	public BSZ_BodenseeImport_Element(String pageid, String bookletid, String journalid, String lfnr, String jahr, String label, String jpg) {
+		this.pageid = pageid;
+		this.bookletid = bookletid;
+		this.journalid = journalid;
+		this.lfnr = lfnr;
+		this.jahr = jahr;
+		this.label = label;
+		this.jpg = jpg;
+		this.issueNumber = calculateIssueNumber(pageid, bookletid);
+		// StringUtils.isNumeric is true for an empty string too, but an element without issue number belongs to its year only
+		this.numericIssue = !issueNumber.isEmpty() && StringUtils.isNumeric(issueNumber);
+		this.key = numericIssue ? jahr + "_" + issueNumber : jahr;
+		this.sortKey = jpg == null ? "" : jpg.toLowerCase();
+	}
+
 	public int compareTo(BSZ_BodenseeImport_Element compareElement) {
-		return jpg.toLowerCase().compareTo(compareElement.getJpg().toLowerCase());
+		return sortKey.compareTo(compareElement.sortKey);
+	}
+
+	/**
+	 * Get the key of this element as it is used as record identifier in the mass import GUI
+	 *
+	 * @param separateBookletIds true if the booklet id shall be part of the key
+	 * @return the key in the form jahr[_issue][_bookletid]
+	 */
+	public String getKey(boolean separateBookletIds) {
+		return separateBookletIds ? key + "_" + bookletid : key;
 	}
-	
-	public String getIssueNumber(){
+
+	private static String calculateIssueNumber(String pageid, String bookletid) {
+		if (pageid == null) {
+			return "";
+		}
 		if (pageid.startsWith("aaaaaaaaa")){
+			if (bookletid == null) {
+				return "";
+			}
 			String nr = bookletid.substring(bookletid.lastIndexOf(".") + 1);
 			return nr;
 		}else{
-			String nr = pageid.replaceAll("_", "-");
+			String nr = pageid.replace('_', '-');
 			nr = nr.substring(nr.indexOf("-h") + 2);
-			Matcher matcher = Pattern.compile("-[a-z]", Pattern.CASE_INSENSITIVE).matcher(nr);        
+			Matcher matcher = ISSUE_END_PATTERN.matcher(nr);
 			if (matcher.find()) {
 				nr = nr.substring(0,matcher.start());
 			}
@@ -0,0 +1,122 @@
+package de.intranda.goobi.plugins.bsz;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Content hashes of the year/issue groups of a sql dump. The hash of a group is the sum of the SHA-256 hashes of its rows, so it does not depend on
+ * the order in which the rows are found in the dump and the hashes of the parts of a dump that was parsed in parallel can simply be added up. Any
+ * changed, added or removed row of a group changes its hash.
+ */
+public class BSZ_BodenseeImport_GroupHashes {
+
+    private static final int LONGS = 4;
+    private static final char[] HEX = "0123456789abcdef".toCharArray();
+
+    private final Map<String, long[]> sums = new HashMap<>();
+    private final MessageDigest digest;
+
+    public BSZ_BodenseeImport_GroupHashes() {
+        try {
+            digest = MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            // every Java runtime has to support SHA-256
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * Calculate the hash of all pages of a table, e.g. of the pages of one record
+     *
+     * @param pages the pages to hash
+     * @return the hash as hex string
+     */
+    public static String of(BSZ_BodenseeImport_PageTable pages) {
+        BSZ_BodenseeImport_GroupHashes hashes = new BSZ_BodenseeImport_GroupHashes();
+        long[] sum = new long[LONGS];
+        BSZ_BodenseeImport_PageTable.Cursor cursor = pages.cursor();
+        while (cursor.next()) {
+            hashes.addRow(sum, cursor.getPageid(), cursor.getBookletid(), cursor.getJournalid(), cursor.getLfnr(), cursor.getJahr(),
+                    cursor.getLabel(), cursor.getJpg());
+        }
+        return toHex(sum);
+    }
+
+    /**
+     * Add a row to the hash of its group
+     *
+     * @param key the year/issue key of the group
+     * @param element the row to add
+     */
+    public void add(String key, BSZ_BodenseeImport_Element element) {
+        addRow(sums.computeIfAbsent(key, k -> new long[LONGS]), element.getPageid(), element.getBookletid(), element.getJournalid(),
+                element.getLfnr(), element.getJahr(), element.getLabel(), element.getJpg());
+    }
+
+    /**
+     * Add the hashes of another part of the same dump
+     *
+     * @param other the hashes to add
+     */
+    public void addAll(BSZ_BodenseeImport_GroupHashes other) {
+        for (Map.Entry<String, long[]> entry : other.sums.entrySet()) {
+            add(sums.computeIfAbsent(entry.getKey(), k -> new long[LONGS]), entry.getValue());
+        }
+    }
+
+    /**
+     * @return the hashes of all groups as hex strings, sorted by the key
+     */
+    public Map<String, String> getHashes() {
+        Map<String, String> hashes = new TreeMap<>();
+        for (Map.Entry<String, long[]> entry : sums.entrySet()) {
+            hashes.put(entry.getKey(), toHex(entry.getValue()));
+        }
+        return hashes;
+    }
+
+    private void addRow(long[] sum, String... values) {
+        for (String value : values) {
+            if (value == null) {
+                // distinguish null from an empty value
+                digest.update((byte) 1);
+            } else {
+                digest.update((byte) 0);
+                digest.update(value.getBytes(StandardCharsets.UTF_8));
+            }
+            digest.update((byte) 0);
+        }
+        byte[] bytes = digest.digest();
+        long[] row = new long[LONGS];
+        for (int i = 0; i < bytes.length; i++) {
+            row[i / 8] = (row[i / 8] << 8) | (bytes[i] & 0xff);
+        }
+        add(sum, row);
+    }
+
+    /**
+     * Add two 256 bit numbers, the carry of the highest long is dropped
+     */
+    private static void add(long[] sum, long[] value) {
+        long carry = 0;
+        for (int i = LONGS - 1; i >= 0; i--) {
+            long result = sum[i] + value[i] + carry;
+            carry = Long.compareUnsigned(result, sum[i]) < 0 || (carry == 1 && result == sum[i]) ? 1 : 0;
+            sum[i] = result;
+        }
+    }
+
+    private static String toHex(long[] sum) {
+        StringBuilder hex = new StringBuilder(LONGS * 16);
+        for (long value : sum) {
+            for (int shift = 60; shift >= 0; shift -= 4) {
+                hex.append(HEX[(int) (value >>> shift) & 0xf]);
+            }
+        }
+        return hex.toString();
+    }
+}
@@ -6,35 +6,38 @@ import java.nio.file.DirectoryStream;
 import java.nio.file.Path;
 import java.util.ArrayList;
 import java.util.Collections;
-import java.util.LinkedHashSet;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.function.BiConsumer;
+import java.util.function.BiFunction;
+import java.util.function.Function;
 
-import org.apache.commons.io.FileUtils;
-import org.apache.commons.lang.StringUtils;
 import org.apache.commons.lang.SystemUtils;
 import org.apache.pdfbox.Loader;
 import org.apache.pdfbox.pdmodel.PDDocument;
 import org.apache.pdfbox.pdmodel.PDPage;
 import org.goobi.production.enums.ImportReturnValue;
-import org.goobi.production.enums.PluginType;
 import org.goobi.production.importer.ImportObject;
 import org.goobi.production.importer.Record;
-import org.goobi.production.plugin.PluginLoader;
-import org.goobi.production.plugin.interfaces.IOpacPlugin;
 
 import de.sub.goobi.config.ConfigurationHelper;
 import de.sub.goobi.helper.StorageProvider;
 import de.sub.goobi.helper.exceptions.ImportPluginException;
-import de.unigoettingen.sub.search.opac.ConfigOpac;
-import de.unigoettingen.sub.search.opac.ConfigOpacCatalogue;
+import de.sub.goobi.persistence.managers.ProcessManager;
 import lombok.Setter;
 import lombok.extern.log4j.Log4j;
-import ugh.dl.ContentFile;
 import ugh.dl.DigitalDocument;
 import ugh.dl.DocStruct;
-import ugh.dl.DocStructType;
 import ugh.dl.Fileformat;
 import ugh.dl.Metadata;
+import ugh.dl.MetadataType;
 import ugh.dl.Prefs;
 import ugh.exceptions.MetadataTypeNotAllowedException;
 import ugh.exceptions.PreferencesException;
@@ -55,14 +58,71 @@ public class BSZ_BodenseeImport_Helper {
 
     private String bsz_import_sql_file;
     private String bsz_import_folder;
-    private String ppn_volume;
+    // shared by all import threads, the ruleset is only read after it was loaded, the same as by the import threads of Goobi itself
     private Prefs prefs;
+    // types of the ruleset, resolved in prepare()
+    private BSZ_BodenseeImport_RulesetTypes types;
+    // reason why the ruleset cannot be used for the import, null if all types exist
+    private String rulesetProblem;
     private String ppn;
     private String tempFolder;
     private String title;
+    // catalogue record of the journal, it is requested only once per run and copied for each volume
+    private Fileformat catalogueRecord;
+    // limits of the catalogue requests of the current run
+    private BSZ_BodenseeImport_CatalogueGuard catalogueGuard;
+    // maximum time of a single catalogue request in milliseconds
     @Setter
+    private long catalogueTimeout = BSZ_BodenseeImport_CatalogueGuard.DEFAULT_CALL_TIMEOUT;
+    // maximum sum of the time of all catalogue requests of a run in milliseconds
+    @Setter
+    private long catalogueBudget = BSZ_BodenseeImport_CatalogueGuard.DEFAULT_TOTAL_BUDGET;
+    // number of failed catalogue requests in a row after that the catalogue is not asked anymore in this run
+    @Setter
+    private int catalogueFailureThreshold = BSZ_BodenseeImport_CatalogueGuard.DEFAULT_FAILURE_THRESHOLD;
     private boolean createIssues = true;
     private boolean separateBookletIds = false;
+    private BSZ_BodenseeImport_DumpIndex dumpIndex;
+    // read the sql file memory mapped for each request instead of keeping the parsed index in memory
+    @Setter
+    private boolean memoryMapped = false;
+    // keep a persistent index file next to the sql file to list the years and to read the rows of a year without parsing the whole file
+    @Setter
+    private boolean sidecarIndex = true;
+    private BSZ_BodenseeImport_SidecarIndex sidecar;
+    // number of threads to parse the sql file
+    @Setter
+    private int parseThreads = Runtime.getRuntime().availableProcessors();
+    // list only the year/issue groups that changed since their last successful import
+    @Setter
+    private boolean onlyChangedGroups = false;
+    private BSZ_BodenseeImport_ImportState importState;
+    // write the pages of a volume directly into the METS file instead of creating them as structural elements first, for very large volumes
+    @Setter
+    private boolean streamingMets = false;
+    // how the images are put into the temp folder, linking falls back to copying if source and target are on different filesystems
+    @Setter
+    private BSZ_BodenseeImport_ImageStager.Strategy stagingStrategy = BSZ_BodenseeImport_ImageStager.Strategy.COPY;
+    // number of images of a volume that are staged at the same time
+    @Setter
+    private int copyThreads = BSZ_BodenseeImport_ImageStager.DEFAULT_THREADS;
+    // keep images of an interrupted run in the temp folder if size and modification time match their source
+    @Setter
+    private boolean skipIdenticalImages = true;
+    // compare the content of such images with their source as well
+    @Setter
+    private boolean verifySkippedImages = false;
+    // write the SHA-256 digests of the images into a manifest in the folder of each volume while they are staged
+    @Setter
+    private boolean checksumManifest = false;
+    // check that all images of a volume exist before the catalogue is asked and anything is copied
+    @Setter
+    private boolean checkImagesFirst = true;
+    // number of records that are imported at the same time in generateImportObjects
+    @Setter
+    private int importThreads = 1;
+    // pool to stage the images of all records that are imported at the same time, null if the records are imported one after the other
+    private volatile ExecutorService stagingExecutor;
 
     public BSZ_BodenseeImport_Helper(String inBasicName, boolean inSeparateBooketIds) {
         basic_name = inBasicName;
@@ -70,6 +130,31 @@ public class BSZ_BodenseeImport_Helper {
         bsz_import_sql_file = basic_folder + basic_name + ".sql";
         bsz_import_folder = basic_folder + basic_name + "/";
         separateBookletIds = inSeparateBooketIds;
+        configure(BSZ_BodenseeImport_Configuration.load(basic_name));
+    }
+
+    /**
+     * Method to apply the settings of the plugin configuration to this import, settings that are not configured keep their default values
+     * 
+     * @param config the settings of this import
+     */
+    public void configure(BSZ_BodenseeImport_Configuration config) {
+        catalogueTimeout = config.getLong("catalogue/timeout", catalogueTimeout);
+        catalogueBudget = config.getLong("catalogue/budget", catalogueBudget);
+        catalogueFailureThreshold = config.getInt("catalogue/failureThreshold", catalogueFailureThreshold);
+        memoryMapped = config.getBoolean("dump/memoryMapped", memoryMapped);
+        sidecarIndex = config.getBoolean("dump/sidecarIndex", sidecarIndex);
+        parseThreads = config.getInt("dump/parseThreads", parseThreads);
+        onlyChangedGroups = config.getBoolean("dump/onlyChangedGroups", onlyChangedGroups);
+        streamingMets = config.getBoolean("mets/streaming", streamingMets);
+        stagingStrategy = BSZ_BodenseeImport_ImageStager.Strategy.getByName(config.getString("images/strategy", stagingStrategy.name()));
+        copyThreads = config.getInt("images/copyThreads", copyThreads);
+        skipIdenticalImages = config.getBoolean("images/skipIdentical", skipIdenticalImages);
+        verifySkippedImages = config.getBoolean("images/verifySkipped", verifySkippedImages);
+        checksumManifest = config.getBoolean("images/checksumManifest", checksumManifest);
+        checkImagesFirst = config.getBoolean("images/checkFirst", checkImagesFirst);
+        importThreads = config.getInt("importThreads", importThreads);
+        BSZ_BodenseeImport_CatalogueCache.getInstance().configure(BSZ_BodenseeImport_Configuration.load(null));
     }
 
     public void prepare(Prefs prefs, String ppn, String tempFolder, String title) {
@@ -77,62 +162,196 @@ public class BSZ_BodenseeImport_Helper {
         this.ppn = ppn;
         this.tempFolder = tempFolder;
         this.title = title;
+        resolveTypes();
+        // request the catalogue record again for each run to get its current state
+        synchronized (this) {
+            catalogueRecord = null;
+            catalogueGuard = null;
+        }
     }
 
     /**
-     * Read all years from the given JSON file to pass back an ordered list of all importable years for the mass import plugin GUI
+     * Method to count the processes with the given title
+     * 
+     * @param processTitle the title of the process
+     * @return the number of processes, -1 if the database cannot be asked
+     */
+    private static int countProcesses(String processTitle) {
+        try {
+            // the title is passed as parameter of the query, processes of all institutions are counted
+            return ProcessManager.countProcessTitle(processTitle, null);
+        } catch (RuntimeException e) {
+            log.warn("Processes with the title " + processTitle + " cannot be counted", e);
+            return -1;
+        }
+    }
+
+    /**
+     * Read all years from the given JSON file to pass back an ordered list of all importable years for the mass import plugin GUI. If only changed
+     * groups shall be listed, the years whose content is the same as during their last successful import are left out.
      * 
      * @return List<String> of years
      */
     public List<String> getYearsFromJson() {
-        // read sql file to list all years
-        LinkedHashSet<String> years = new LinkedHashSet<>();
-
         try {
-            File f = new File(bsz_import_sql_file);
-            List<String> lines = FileUtils.readLines(f, "UTF-8");
-            for (String line : lines) {
-                if (line.startsWith("INSERT INTO")) {
-                    BSZ_BodenseeImport_Element element = convertSqlToElement(line);
-
-                    String isn = "";
-                    if (StringUtils.isNumeric(element.getIssueNumber())) {
-                        isn = "_" + element.getIssueNumber();
-                    }
-                    if (separateBookletIds) {
-                        years.add(element.getJahr() + isn + "_" + element.getBookletid());
-                    } else {
-                        years.add(element.getJahr() + isn);
-                    }
-                }
+            Map<String, String> hashes = readGroupHashes();
+            if (onlyChangedGroups) {
+                // groups whose process was created since the last listing count as imported now
+                getImportState().confirmPending(BSZ_BodenseeImport_Helper::countProcesses);
+                return getImportState().getChangedKeys(hashes);
             }
+            return new ArrayList<>(hashes.keySet());
         } catch (IOException e) {
             log.error("Problem occured while reading the sql file for " + basic_name + " import", e);
         }
+        return new ArrayList<>();
+    }
+
+    /**
+     * Method to read the content hashes of all year/issue groups of the sql file
+     * 
+     * @return the hashes ordered by the year/issue key
+     * @throws IOException
+     */
+    private Map<String, String> readGroupHashes() throws IOException {
+        // compressed sql files cannot be read with random access, they are always parsed into the index in memory
+        File sqlFile = BSZ_BodenseeImport_DumpSource.find(bsz_import_sql_file);
+        boolean compressed = BSZ_BodenseeImport_DumpSource.isCompressed(sqlFile);
+        if (sidecarIndex && !compressed) {
+            return getSidecarIndex(sqlFile).getHashes();
+        }
+        if (memoryMapped && !compressed) {
+            BSZ_BodenseeImport_GroupHashes groupHashes = new BSZ_BodenseeImport_GroupHashes();
+            new BSZ_BodenseeImport_MappedReader(sqlFile).read(null,
+                    element -> groupHashes.add(BSZ_BodenseeImport_DumpIndex.getKey(element, separateBookletIds), element));
+            return groupHashes.getHashes();
+        }
+        return getDumpIndex(sqlFile).getHashes();
+    }
+
+    /**
+     * Get the state of the last successful imports of this journal, it is read from the state file next to the sql file
+     * 
+     * @return the {@link BSZ_BodenseeImport_ImportState} of this journal
+     */
+    private synchronized BSZ_BodenseeImport_ImportState getImportState() {
+        if (importState == null) {
+            importState = BSZ_BodenseeImport_ImportState.load(new File(basic_folder + basic_name + BSZ_BodenseeImport_ImportState.FILE_EXTENSION));
+        }
+        return importState;
+    }
 
-        ArrayList<String> mylist = new ArrayList<>(years);
-        Collections.sort(mylist);
-        return mylist;
+    /**
+     * Get the parsed index of the sql file. The file is parsed only once and parsed again only if it was changed in the meantime.
+     * 
+     * @param sqlFile the sql file to read, may be compressed
+     * @return the {@link BSZ_BodenseeImport_DumpIndex} for the sql file of this journal
+     * @throws IOException
+     */
+    private synchronized BSZ_BodenseeImport_DumpIndex getDumpIndex(File sqlFile) throws IOException {
+        if (dumpIndex == null || !dumpIndex.getSqlFile().equals(sqlFile) || dumpIndex.isStale()) {
+            dumpIndex = BSZ_BodenseeImport_DumpIndex.build(sqlFile, separateBookletIds, parseThreads);
+        }
+        return dumpIndex;
     }
 
     /**
-     * Method to convert a given SQL insert line into a BSZ Element
+     * Get the persistent index of the sql file. It is read from the index file next to the sql file and created again if the sql file was changed.
      * 
-     * @param inline the insert statement line of sql to parse
-     * @return a new {@link BSZ_BodenseeImport_Element}
+     * @param sqlFile the uncompressed sql file to read
+     * @return the {@link BSZ_BodenseeImport_SidecarIndex} for the sql file of this journal
+     * @throws IOException
      */
-    private BSZ_BodenseeImport_Element convertSqlToElement(String inline) {
-        String line = inline.substring(inline.indexOf("VALUES (") + 8, inline.lastIndexOf(")"));
-        String[] parts = line.split(",");
-        BSZ_BodenseeImport_Element element = new BSZ_BodenseeImport_Element();
-        element.setPageid(parts[0].trim().replaceAll("'", ""));
-        element.setBookletid(parts[1].trim().replaceAll("'", ""));
-        element.setJournalid(parts[2].trim().replaceAll("'", ""));
-        element.setLfnr(parts[3].trim().replaceAll("'", ""));
-        element.setJahr(parts[4].trim().replaceAll("'", ""));
-        element.setLabel(parts[5].trim().replaceAll("'", ""));
-        element.setJpg(parts[6].trim().replaceAll("'", ""));
-        return element;
+    private synchronized BSZ_BodenseeImport_SidecarIndex getSidecarIndex(File sqlFile) throws IOException {
+        if (sidecar == null || !sidecar.getSqlFile().equals(sqlFile) || sidecar.isStale()) {
+            sidecar = BSZ_BodenseeImport_SidecarIndex.load(sqlFile, separateBookletIds, parseThreads);
+        }
+        return sidecar;
+    }
+
+    /**
+     * Generates the {@link ImportObject} elements for all given {@link Record}s. If more than one import thread is configured, the records are imported
+     * at the same time, each with its own {@link BSZ_BodenseeImport_VolumeContext}. The result keeps the order of the records in any case.
+     * 
+     * @param records the selected records
+     * @param progress called once for each record as its import starts, e.g. to update the progress bar
+     * @return List of {@link ImportObject} in the order of the records
+     */
+    public List<ImportObject> generateImportObjects(List<Record> records, Runnable progress) {
+        int threads = Math.min(importThreads, records.size());
+        if (threads <= 1) {
+            List<ImportObject> answer = new ArrayList<>();
+            for (Record record : records) {
+                progress.run();
+                generateImportObject(answer, record);
+            }
+            return answer;
+        }
+
+        log.info("Import " + records.size() + " records of " + basic_name + " with " + threads + " threads");
+        // the records share one pool to stage their images, so no more than copyThreads images are staged at the same time in the whole import
+        stagingExecutor = Executors.newFixedThreadPool(Math.max(1, copyThreads));
+        try {
+            return importInOrder(records, threads, progress, this::generateImportObject, (record, cause) -> {
+                // generateImportObject reports all expected problems in the ImportObject itself, the other records are kept anyway
+                log.error("Unexpected problem during the import of " + record.getId() + " of " + basic_name, cause);
+                ImportObject failed = new ImportObject();
+                BSZ_BodenseeImport_VolumeContext context = createContext(record);
+                failed.setMetsFilename(context.getMetsFileName());
+                failed.setProcessTitle(context.getProcessTitle());
+                failed.setErrorMessage("Unexpected problem during the import: " + cause);
+                failed.setImportReturnValue(ImportReturnValue.InvalidData);
+                return failed;
+            });
+        } finally {
+            stagingExecutor.shutdownNow();
+            stagingExecutor = null;
+        }
+    }
+
+    /**
+     * Import the given records with the given number of threads. The results are collected in the order of the records, no matter in which order the
+     * threads finish. A record whose import throws an exception gets the result of the failure handler, the results of the other records are kept.
+     * 
+     * @param records the records to import
+     * @param threads the number of records that are imported at the same time
+     * @param progress called once for each record as its import starts, never by two threads at the same time
+     * @param importer adds the results of a record to the given list
+     * @param failure creates the result of a record whose import threw the given exception
+     * @return the results in the order of the records, only the ones of the records finished so far if the import was interrupted
+     */
+    static <R, T> List<T> importInOrder(List<R> records, int threads, Runnable progress, BiConsumer<List<T>, R> importer,
+            BiFunction<R, Throwable, T> failure) {
+        List<T> answer = new ArrayList<>();
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        List<Future<List<T>>> results = new ArrayList<>();
+        try {
+            for (R record : records) {
+                results.add(executor.submit(() -> {
+                    // the progress bar is not thread safe
+                    synchronized (progress) {
+                        progress.run();
+                    }
+                    List<T> result = new ArrayList<>();
+                    importer.accept(result, record);
+                    return result;
+                }));
+            }
+            for (int i = 0; i < results.size(); i++) {
+                try {
+                    answer.addAll(results.get(i).get());
+                } catch (ExecutionException e) {
+                    answer.add(failure.apply(records.get(i), e.getCause()));
+                }
+            }
+        } catch (InterruptedException e) {
+            log.error("Import was interrupted after " + answer.size() + " of " + records.size() + " records");
+            results.forEach(result -> result.cancel(true));
+            Thread.currentThread().interrupt();
+        } finally {
+            executor.shutdownNow();
+        }
+        return answer;
     }
 
     /**
@@ -146,28 +365,57 @@ public class BSZ_BodenseeImport_Helper {
     public void generateImportObject(List<ImportObject> answer, Record record) {
         // generate an ImportObject for each selected year and add it to the result list later on
         ImportObject importObjectYear = new ImportObject();
-        ppn_volume = ppn + "_" + record.getId();
-        ppn_volume = ppn_volume.replaceAll("\\+", "_");
-        ppn_volume = ppn_volume.replaceAll("\\.", "_");
-        String metsFileName = tempFolder + ppn_volume + ".xml";
+        BSZ_BodenseeImport_VolumeContext context = createContext(record);
+        String metsFileName = context.getMetsFileName();
         importObjectYear.setMetsFilename(metsFileName);
-        String procTitle = basic_name + "_" + ppn_volume;
-        String regex = ConfigurationHelper.getInstance().getProcessTitleReplacementRegex();
-        procTitle = procTitle.replaceAll(regex, "");
-        importObjectYear.setProcessTitle(procTitle);
+        importObjectYear.setProcessTitle(context.getProcessTitle());
+
+        if (types == null) {
+            // without the types of the ruleset neither the catalogue nor the files are touched
+            importObjectYear.setErrorMessage(rulesetProblem);
+            importObjectYear.setImportReturnValue(ImportReturnValue.InvalidData);
+            answer.add(importObjectYear);
+            return;
+        }
+
+        // read the pages of the volume and check that all of its images were delivered, before any expensive work is done
+        BSZ_BodenseeImport_PageTable pages;
+        try {
+            pages = readPagesFromSql(context.getRecordId());
+            if (pages.size() == 0) {
+                throw new IOException("No pages of " + context.getRecordId() + " were found in the sql file of " + basic_name);
+            }
+            List<String> missingImages = checkImagesFirst
+                    ? findMissingImages(pages, this::getImageFile, folder -> StorageProvider.getInstance().listFiles(folder))
+                    : Collections.emptyList();
+            if (!missingImages.isEmpty()) {
+                String message = missingImages.size() + " of " + pages.size() + " images of " + context.getRecordId() + " are missing: "
+                        + String.join(", ", missingImages);
+                log.error(message);
+                importObjectYear.setErrorMessage(message);
+                importObjectYear.setImportReturnValue(ImportReturnValue.InvalidData);
+                answer.add(importObjectYear);
+                return;
+            }
+        } catch (IOException e) {
+            log.error("Problem occured while reading the sql file for " + basic_name + " import", e);
+            importObjectYear.setErrorMessage(e.getMessage());
+            importObjectYear.setImportReturnValue(ImportReturnValue.InvalidData);
+            answer.add(importObjectYear);
+            return;
+        }
 
         try {
             // request the object from the catalogue and generate a FileFormat
-            Fileformat fileformat = createFileFormat();
+            Fileformat fileformat = createFileFormat(context);
             if (fileformat != null) {
 
                 // create physical docstruct
                 try {
                     DigitalDocument dd = fileformat.getDigitalDocument();
-                    DocStructType docstructBoundBook = prefs.getDocStrctTypeByName("BoundBook");
-                    DocStruct physical = dd.createDocStruct(docstructBoundBook);
-                    Metadata pathimagefiles = new Metadata(prefs.getMetadataTypeByName("pathimagefiles"));
-                    pathimagefiles.setValue(ppn_volume);
+                    DocStruct physical = dd.createDocStruct(types.getBoundBook());
+                    Metadata pathimagefiles = new Metadata(types.getPathimagefiles());
+                    pathimagefiles.setValue(context.getPpnVolume());
                     physical.addMetadata(pathimagefiles);
                     dd.setPhysicalDocStruct(physical);
 
@@ -178,15 +426,24 @@ public class BSZ_BodenseeImport_Helper {
 
                 try {
                     // add all issues and the correct pages there
-                    addAllIssues(fileformat, record.getId(), importObjectYear.getProcessTitle());
+                    BSZ_BodenseeImport_MetsWriter metsWriter = streamingMets ? new BSZ_BodenseeImport_MetsWriter(types) : null;
+                    String hash = addAllIssues(fileformat, context, pages, metsWriter);
 
                     // write Mets file into temp folder of Goobi to let it be imported afterwards
-                    MetsMods mm = new MetsMods(prefs);
-                    mm.setDigitalDocument(fileformat.getDigitalDocument());
                     log.debug("Writing '" + metsFileName + "' into given folder...");
-                    mm.write(metsFileName);
+                    if (metsWriter != null) {
+                        metsWriter.write(fileformat, prefs, metsFileName);
+                    } else {
+                        MetsMods mm = new MetsMods(prefs);
+                        mm.setDigitalDocument(fileformat.getDigitalDocument());
+                        mm.write(metsFileName);
+                    }
 
                     importObjectYear.setImportReturnValue(ImportReturnValue.ExportFinished);
+                    // remember the prepared content to detect changes of this year in later deliveries, Goobi creates the process afterwards,
+                    // so the group only counts as imported once its process exists
+                    getImportState().markPending(context.getRecordId(), hash, context.getProcessTitle(),
+                            countProcesses(context.getProcessTitle()));
                 } catch (IOException e) {
                     log.error("IOException during the massimport " + this.getClass().getName(), e);
                     importObjectYear.setErrorMessage(e.getMessage());
@@ -207,37 +464,54 @@ public class BSZ_BodenseeImport_Helper {
             answer.add(importObjectYear);
         } catch (ImportPluginException e) {
             log.error("ImportPluginException during the massimport in " + this.getClass().getName(), e);
+            importObjectYear.setErrorMessage(e.getMessage());
+            importObjectYear.setImportReturnValue(ImportReturnValue.InvalidData);
+            answer.add(importObjectYear);
         }
     }
 
     /**
-     * Method to do the catalogue request for a given identifier and to generate a {@link Fileformat} out of it During the creation of the
-     * {@link Fileformat} it is enriched with an updated identifier, a viewer sub theme and the right digital collection assignements
+     * Method to create the context of the import of a record with the identifier of the volume and all names derived from it
      * 
+     * @param record the record to import
+     * @return the context of the volume
+     */
+    private BSZ_BodenseeImport_VolumeContext createContext(Record record) {
+        String ppnVolume = ppn + "_" + record.getId();
+        ppnVolume = ppnVolume.replaceAll("\\+", "_");
+        ppnVolume = ppnVolume.replaceAll("\\.", "_");
+        String procTitle = basic_name + "_" + ppnVolume;
+        String regex = ConfigurationHelper.getInstance().getProcessTitleReplacementRegex();
+        procTitle = procTitle.replaceAll(regex, "");
+        return new BSZ_BodenseeImport_VolumeContext(record.getId(), ppnVolume, procTitle, tempFolder);
+    }
+
+    /**
+     * Method to generate a {@link Fileformat} for the current volume out of a copy of the catalogue record of the journal. The copy gets the
+     * identifiers of the volume assigned.
+     * 
+     * @param context the context of the current volume
      * @return {@link Fileformat} to use it as METS file afterwards
-     * @throws ImportPluginException
+     * @throws ImportPluginException if the catalogue record cannot be requested
      */
-    private Fileformat createFileFormat() throws ImportPluginException {
+    private Fileformat createFileFormat(BSZ_BodenseeImport_VolumeContext context) throws ImportPluginException {
+        Fileformat journal = getCatalogueRecord();
         try {
-            ConfigOpacCatalogue coc = ConfigOpac.getInstance().getCatalogueByName(catalogue);
-            IOpacPlugin myImportOpac = (IOpacPlugin) PluginLoader.getPluginByTitle(PluginType.Opac, coc.getOpacType());
-            Fileformat myRdf = myImportOpac.search("12", ppn, coc, prefs);
+            // each volume gets its own deep copy, so the record of the journal is never changed. The copy walks the whole record of the journal and
+            // UGH does not promise that this can be done by several threads at the same time, so the import threads copy it one after the other
+            Fileformat myRdf = new MetsMods(prefs);
+            DigitalDocument copy;
+            synchronized (journal) {
+                copy = journal.getDigitalDocument().copyDigitalDocument();
+            }
+            myRdf.setDigitalDocument(copy);
 
             DocStruct ds = myRdf.getDigitalDocument().getLogicalDocStruct();
-            // change existing digital ppn to have a prefix
-            adaptIdentifier(ds, "CatalogIDDigital", ppn);
-            // change existing source ppn to have a prefix
-            adaptIdentifier(ds, "CatalogIDSource", ppn);
-            // add viewer theme
-            addMetadata(ds, "ViewerSubTheme", "bsz-st-bodenseebibliotheken");
-            // add collections
-            addMetadata(ds, "singleDigCollection", "ZS_RegioBodensee");
-
             // assign a ppn digital to the child docstruct (volume)
             if (ds.getType().isAnchor()) {
                 DocStruct child = ds.getAllChildren().get(0);
-                adaptIdentifier(child, "CatalogIDDigital", ppn_volume);
-                adaptIdentifier(child, "CatalogIDSource", ppn_volume);
+                adaptIdentifier(child, types.getCatalogIdDigital(), context.getPpnVolume());
+                adaptIdentifier(child, types.getCatalogIdSource(), context.getPpnVolume());
             }
 
             return myRdf;
@@ -247,26 +521,90 @@ public class BSZ_BodenseeImport_Helper {
         return null;
     }
 
+    /**
+     * @param createIssues true if each issue becomes a structural element of its own
+     */
+    public void setCreateIssues(boolean createIssues) {
+        this.createIssues = createIssues;
+        // the required types of the ruleset depend on it
+        if (prefs != null) {
+            resolveTypes();
+        }
+    }
+
+    /**
+     * Method to check the ruleset before anything is imported
+     */
+    private void resolveTypes() {
+        try {
+            types = BSZ_BodenseeImport_RulesetTypes.resolve(prefs, createIssues);
+            rulesetProblem = null;
+        } catch (PreferencesException e) {
+            log.error("Ruleset cannot be used for the " + basic_name + " import", e);
+            types = null;
+            rulesetProblem = e.getMessage();
+        }
+    }
+
+    /**
+     * Method to do the catalogue request for the journal and to generate a {@link Fileformat} out of it. The request is done only once per run,
+     * later calls get the same record. During the creation of the {@link Fileformat} it is enriched with an updated identifier, a viewer sub theme
+     * and the right digital collection assignements
+     * 
+     * @return {@link Fileformat} of the journal that must not be changed
+     * @throws ImportPluginException if the catalogue cannot be asked or does not know the record
+     */
+    private synchronized Fileformat getCatalogueRecord() throws ImportPluginException {
+        if (catalogueRecord == null) {
+            if (catalogueGuard == null) {
+                catalogueGuard = new BSZ_BodenseeImport_CatalogueGuard(catalogueTimeout, catalogueBudget, catalogueFailureThreshold);
+            }
+            try {
+                Fileformat myRdf = BSZ_BodenseeImport_CatalogueClient.getInstance(catalogue).search(ppn, prefs, catalogueGuard);
+                if (myRdf == null) {
+                    throw new IOException("Record was not found in catalogue " + catalogue);
+                }
+
+                DocStruct ds = myRdf.getDigitalDocument().getLogicalDocStruct();
+                // change existing digital ppn to have a prefix
+                adaptIdentifier(ds, types.getCatalogIdDigital(), ppn);
+                // change existing source ppn to have a prefix
+                adaptIdentifier(ds, types.getCatalogIdSource(), ppn);
+                // add viewer theme
+                addMetadata(ds, types.getViewerSubTheme(), "bsz-st-bodenseebibliotheken");
+                // add collections
+                addMetadata(ds, types.getSingleDigCollection(), "ZS_RegioBodensee");
+
+                catalogueRecord = myRdf;
+            } catch (Exception e) {
+                // not kept, so the next volume tries again
+                log.error("Exception while requesting the catalogue record " + ppn, e);
+                throw new ImportPluginException("Catalogue record " + ppn + " cannot be used: " + e.getMessage());
+            }
+        }
+        return catalogueRecord;
+    }
+
     /**
      * Method to extract a given pdf file if it exists for the volume as individual pages
      * 
-     * @param inYear the year to use for the extraction of data from the JSON result
-     * @param inProcessTitle the process title to use for copying the final results at the end
+     * @param context the context of the current volume
+     * @param pages the pages of the volume
      * 
      * @throws IOException
      * @throws COSVisitorException
      */
-    private void extractPdf(String inYear, String inProcessTitle, List<BSZ_BodenseeImport_Element> elements) throws IOException {
-        File targetFolderPdfSingles = new File(tempFolder + ppn_volume + File.separator + "ocr"
-                + File.separator + inProcessTitle + "_pdf");
+    private void extractPdf(BSZ_BodenseeImport_VolumeContext context, BSZ_BodenseeImport_PageTable pages) throws IOException {
+        File targetFolderPdfSingles = new File(context.getVolumeFolder() + "ocr" + File.separator + context.getProcessTitle() + "_pdf");
         targetFolderPdfSingles.mkdirs();
         // copy pdf files into right place in tmp folder
         int pdfCounter = 1;
 
         List<Path> allMyFiles = new ArrayList();
         //		allMyFiles = NIOFileUtils.listFiles(bsz_import_folder,PDF_FILTER);
-        if (elements.size() > 0) {
-            String firstImage = elements.get(0).getJpg().substring(image_file_prefix_to_remove.length() - 1);
+        BSZ_BodenseeImport_PageTable.Cursor first = pages.cursor();
+        if (first.next()) {
+            String firstImage = first.getJpg().substring(image_file_prefix_to_remove.length() - 1);
             firstImage = firstImage.substring(0, firstImage.lastIndexOf("/"));
             File folderPath = new File(bsz_import_folder, firstImage);
             allMyFiles.addAll(StorageProvider.getInstance().listFiles(folderPath.getAbsolutePath(), PDF_FILTER));
@@ -336,24 +674,23 @@ public class BSZ_BodenseeImport_Helper {
      * pdf file exists for a the volume too it is extracted into individual pages
      * 
      * @param ff {@link Fileformat} to use for the enrichtment
-     * @param inYearAndIssueNumber the year to use for the extraction of data from the JSON result
-     * @param inProcessTitle the process title to use for copying the final results at the end
+     * @param context the context of the current volume
+     * @param pages the pages of the volume, read before the catalogue record was requested
+     * @param metsWriter the writer that gets the pages instead of the {@link Fileformat}, or null to add them to the {@link Fileformat}
+     * @return the content hash of the imported pages
      * 
      * @throws IOException
      * @throws UGHException
      * @throws COSVisitorException
      */
-    private void addAllIssues(Fileformat ff, String inYearAndIssueNumber, String inProcessTitle) throws IOException, UGHException {
-        File targetFolderImages = new File(tempFolder + ppn_volume + File.separator + "images"
-                + File.separator + inProcessTitle + image_folder_extension);
+    private String addAllIssues(Fileformat ff, BSZ_BodenseeImport_VolumeContext context, BSZ_BodenseeImport_PageTable pages,
+            BSZ_BodenseeImport_MetsWriter metsWriter) throws IOException, UGHException {
+        String inYearAndIssueNumber = context.getRecordId();
+        String inProcessTitle = context.getProcessTitle();
+        File targetFolderImages = new File(context.getVolumeFolder() + "images" + File.separator + inProcessTitle + image_folder_extension);
         targetFolderImages.mkdirs();
 
-        DocStruct physicaldocstruct = ff.getDigitalDocument().getPhysicalDocStruct();
         DocStruct volume = ff.getDigitalDocument().getLogicalDocStruct().getAllChildren().get(0);
-        DocStructType issueType = prefs.getDocStrctTypeByName("PeriodicalIssue");
-        DocStruct issue = null;
-        String lastIssue = "";
-        int physicalPageNumber = 1;
 
         if (createIssues) {
             ff.getDigitalDocument().getLogicalDocStruct().getAllChildren().remove(volume);
@@ -363,17 +700,17 @@ public class BSZ_BodenseeImport_Helper {
                 justYear = justYear.substring(0, justYear.indexOf("_"));
             }
             // add title to volume
-            addMetadata(volume, "TitleDocMain", title + " " + justYear);
+            addMetadata(volume, types.getTitleDocMain(), title + " " + justYear);
             // add current number
-            addMetadata(volume, "CurrentNo", justYear);
+            addMetadata(volume, types.getCurrentNo(), justYear);
             // add current number sorting
-            addMetadata(volume, "CurrentNoSorting", justYear);
+            addMetadata(volume, types.getCurrentNoSorting(), justYear);
             // add viewer theme
-            addMetadata(volume, "ViewerSubTheme", "bsz-st-bodenseebibliotheken");
+            addMetadata(volume, types.getViewerSubTheme(), "bsz-st-bodenseebibliotheken");
             // add collections
-            addMetadata(volume, "singleDigCollection", "ZS_RegioBodensee");
+            addMetadata(volume, types.getSingleDigCollection(), "ZS_RegioBodensee");
             // add publication year
-            addMetadata(volume, "PublicationYear", justYear);
+            addMetadata(volume, types.getPublicationYear(), justYear);
         }
 
         DocStruct logicalDocstruct = ff.getDigitalDocument().getLogicalDocStruct();
@@ -383,117 +720,148 @@ public class BSZ_BodenseeImport_Helper {
             }
         }
 
-        // run through all JSON elements to start the import now and add all issues and pages from one year to this volume
-        List<BSZ_BodenseeImport_Element> elements = readElementsFromSql(inYearAndIssueNumber);
-
         // extract given pdf file
-        extractPdf(inYearAndIssueNumber, inProcessTitle, elements);
-
-        for (BSZ_BodenseeImport_Element element : elements) {
-
-            String issueForTitle = "";
-            String issueForDate = "01";
-            if (StringUtils.isNumeric(element.getIssueNumber())) {
-                issueForTitle = "-" + element.getIssueNumber();
-                issueForDate = element.getIssueNumber();
-            }
+        extractPdf(context, pages);
+
+        // build all pages and issues of the volume
+        String locationPrefix = (SystemUtils.IS_OS_WINDOWS ? "file:/" : "file://") + inProcessTitle + image_folder_extension;
+        BSZ_BodenseeImport_PageStructureBuilder builder =
+                new BSZ_BodenseeImport_PageStructureBuilder(ff.getDigitalDocument(), types, locationPrefix, createIssues);
+        builder.setMetsWriter(metsWriter);
+        int[] imageNumbers = builder.build(inProcessTitle, pages, volume, firstPage -> createIssue(ff, volume, context, firstPage));
+
+        // link or copy all images into right place in tmp folder, the names are fixed before the copies run in parallel
+        BSZ_BodenseeImport_ImageStager stager = new BSZ_BodenseeImport_ImageStager(stagingStrategy, copyThreads);
+        stager.setExecutor(stagingExecutor);
+        stager.setSkipIdentical(skipIdenticalImages);
+        stager.setVerifyContent(verifySkippedImages);
+        if (checksumManifest) {
+            stager.setManifestFolder(new File(context.getVolumeFolder()).toPath());
+        }
+        BSZ_BodenseeImport_PageTable.Cursor element = pages.cursor();
+        while (element.next()) {
+            stager.add(getImageFile(element).toPath(),
+                    new File(targetFolderImages, String.format("%08d", imageNumbers[element.getPosition()]) + image_file_suffiix_to_use).toPath());
+        }
+        log.debug("stage " + pages.size() + " images to " + targetFolderImages.getAbsolutePath());
+        stager.stageAll();
+        stager.writeManifest();
+        stager.logSummary(inProcessTitle);
+        return BSZ_BodenseeImport_GroupHashes.of(pages);
+    }
 
-            String year = element.getJahr();
-
-            // create new issue docstruct if necessary
-            if (!lastIssue.equals(element.getBookletid())) {
-                lastIssue = element.getBookletid();
-                issue = ff.getDigitalDocument().createDocStruct(issueType);
-
-                // add title to issue
-                addMetadata(issue, "TitleDocMain", title + " " + year + issueForTitle);
-                // add publication year
-                addMetadata(issue, "PublicationYear", year);
-                // add publication date
-                addMetadata(issue, "DateOfPublication", year + "-" + issueForDate + "-01");
-                // add digital collection
-                addMetadata(issue, "singleDigCollection", "ZS_RegioBodensee");
-                // add viewer sub theme
-                addMetadata(issue, "ViewerSubTheme", "bsz-st-bodenseebibliotheken");
-                // add issue to volume
-                volume.addChild(issue);
-                if (createIssues) {
-                    adaptIdentifier(issue, "CatalogIDDigital", ppn_volume);
-                    ff.getDigitalDocument().getLogicalDocStruct().addChild(issue);
+    /**
+     * Method to find the images of a volume that are missing in the delivery. Each folder is listed only once, the images are looked up in these
+     * lists instead of asking the filesystem for each single image.
+     * 
+     * @param pages the pages of the volume
+     * @param imageFiles the image of each page in the delivery
+     * @param listing the files of a folder, empty if it does not exist
+     * @return the paths of the missing images in the order of the pages, empty if all exist
+     */
+    static List<String> findMissingImages(BSZ_BodenseeImport_PageTable pages, Function<BSZ_BodenseeImport_PageTable.Cursor, File> imageFiles,
+            Function<String, List<Path>> listing) {
+        Map<String, Set<String>> folders = new LinkedHashMap<>();
+        List<String> missing = new ArrayList<>();
+        BSZ_BodenseeImport_PageTable.Cursor element = pages.cursor();
+        while (element.next()) {
+            File imageFile = imageFiles.apply(element);
+            Set<String> fileNames = folders.computeIfAbsent(imageFile.getParent(), folder -> {
+                Set<String> names = new HashSet<>();
+                for (Path file : listing.apply(folder)) {
+                    names.add(file.getFileName().toString());
                 }
+                return names;
+            });
+            if (!fileNames.contains(imageFile.getName())) {
+                missing.add(imageFile.getAbsolutePath());
             }
+        }
+        log.debug("Checked " + pages.size() + " images in " + folders.size() + " folders, " + missing.size() + " are missing");
+        return missing;
+    }
 
-            // copy each image into right place in tmp folder
-            File imageFile = new File(bsz_import_folder, element.getJpg().substring(image_file_prefix_to_remove.length() - 1));
-            log.debug("copy image from " + imageFile.getAbsolutePath() + " to " + targetFolderImages.getAbsolutePath());
-            FileUtils.copyFile(imageFile, new File(targetFolderImages, String.format("%08d", physicalPageNumber) + image_file_suffiix_to_use));
-            //FileUtils.copyFile(imageFile, new File(targetFolderImages, StringUtils.leftPad(issueNumber, 2, "0") + "_" + String.format("%08d", physicalPageNumber) + IMAGE_FILE_SUFFIX_TO_USE));
-
-            // no matter if new or current issue, add now all pages to current issue
-            if (issue != null) {
-
-                // assigning page numbers
-                DocStructType newPage = prefs.getDocStrctTypeByName("page");
-                DocStruct dsPage = ff.getDigitalDocument().createDocStruct(newPage);
-                physicaldocstruct.addChild(dsPage);
-                addMetadata(dsPage, "physPageNumber", String.valueOf(physicalPageNumber++));
-                addMetadata(dsPage, "logicalPageNumber", element.getLabel());
-                volume.addReferenceTo(dsPage, "logical_physical");
-                if (createIssues) {
-                    issue.addReferenceTo(dsPage, "logical_physical");
-                }
+    /**
+     * @param element the current page
+     * @return the image of the page in the delivery
+     */
+    private File getImageFile(BSZ_BodenseeImport_PageTable.Cursor element) {
+        return new File(bsz_import_folder, element.getJpg().substring(image_file_prefix_to_remove.length() - 1));
+    }
 
-                // image name
-                ContentFile cf = new ContentFile();
-                if (SystemUtils.IS_OS_WINDOWS) {
-                    cf.setLocation("file:/" + inProcessTitle + image_folder_extension + imageFile.getName());
-                } else {
-                    cf.setLocation("file://" + inProcessTitle + image_folder_extension + imageFile.getName());
-                }
-                dsPage.addContentFile(cf);
-            }
+    /**
+     * Method to create the structural element of an issue and to add it to the volume
+     * 
+     * @param ff the {@link Fileformat} of the volume
+     * @param volume the logical element of the volume
+     * @param context the context of the current volume
+     * @param firstPage the first page of the issue
+     * @return the new issue
+     * @throws UGHException
+     */
+    private DocStruct createIssue(Fileformat ff, DocStruct volume, BSZ_BodenseeImport_VolumeContext context, BSZ_BodenseeImport_PageTable.Cursor firstPage)
+            throws UGHException {
+        String issueForTitle = "";
+        String issueForDate = "01";
+        if (firstPage.isNumericIssue()) {
+            issueForTitle = "-" + firstPage.getIssueNumber();
+            issueForDate = firstPage.getIssueNumber();
+        }
+        String year = firstPage.getJahr();
+        if (types.getPeriodicalIssue() == null) {
+            // without issues of their own and without the issue type in the ruleset all pages belong to the volume only
+            return volume;
         }
+
+        DocStruct issue = ff.getDigitalDocument().createDocStruct(types.getPeriodicalIssue());
+        // add title to issue
+        addMetadata(issue, types.getTitleDocMain(), title + " " + year + issueForTitle);
+        // add publication year
+        addMetadata(issue, types.getPublicationYear(), year);
+        // add publication date
+        if (types.getDateOfPublication() != null) {
+            addMetadata(issue, types.getDateOfPublication(), year + "-" + issueForDate + "-01");
+        }
+        // add digital collection
+        addMetadata(issue, types.getSingleDigCollection(), "ZS_RegioBodensee");
+        // add viewer sub theme
+        addMetadata(issue, types.getViewerSubTheme(), "bsz-st-bodenseebibliotheken");
+        // add issue to volume
+        volume.addChild(issue);
+        if (createIssues) {
+            adaptIdentifier(issue, types.getCatalogIdDigital(), context.getPpnVolume());
+            ff.getDigitalDocument().getLogicalDocStruct().addChild(issue);
+        }
+        return issue;
     }
 
     /**
-     * Method to read all BSZ elements from the given JSON file
+     * Method to read all BSZ pages from the given JSON file
      * 
-     * @param inYear The year to search for in the JSON file to just use elements from this year
-     * @return ordered list of elements
+     * @param inYearAndIssue the year/issue key of the record
+     * @return ordered table of pages
      * 
-     * @throws IOException
+     * @throws IOException if the sql file or its index cannot be read, the record must not be imported then
      */
-    private List<BSZ_BodenseeImport_Element> readElementsFromSql(String inYearAndIssue) throws IOException {
-        List<BSZ_BodenseeImport_Element> elements = new ArrayList<>();
-        // read all elements from the sql file
-        try {
-            File f = new File(bsz_import_sql_file);
-            List<String> lines = FileUtils.readLines(f, "UTF-8");
-            for (String line : lines) {
-                if (line.startsWith("INSERT INTO")) {
-                    BSZ_BodenseeImport_Element element = convertSqlToElement(line);
-
-                    String isn = "";
-                    if (StringUtils.isNumeric(element.getIssueNumber())) {
-                        isn = "_" + element.getIssueNumber();
-                    }
-
-                    String comparer = element.getJahr() + isn;
-                    if (separateBookletIds) {
-                        comparer += "_" + element.getBookletid();
-                    }
-                    if (comparer.equals(inYearAndIssue)) {
-                        elements.add(element);
-                    }
+    private BSZ_BodenseeImport_PageTable readPagesFromSql(String inYearAndIssue) throws IOException {
+        // get all pages for this year from the parsed sql file, already sorted by order number
+        File sqlFile = BSZ_BodenseeImport_DumpSource.find(bsz_import_sql_file);
+        boolean compressed = BSZ_BodenseeImport_DumpSource.isCompressed(sqlFile);
+        if (sidecarIndex && !compressed) {
+            return BSZ_BodenseeImport_PageTable.of(getSidecarIndex(sqlFile).getElements(inYearAndIssue));
+        }
+        if (memoryMapped && !compressed) {
+            List<BSZ_BodenseeImport_Element> matches = new ArrayList<>();
+            String year = inYearAndIssue.contains("_") ? inYearAndIssue.substring(0, inYearAndIssue.indexOf("_")) : inYearAndIssue;
+            new BSZ_BodenseeImport_MappedReader(sqlFile).read(year, element -> {
+                if (BSZ_BodenseeImport_DumpIndex.getKey(element, separateBookletIds).equals(inYearAndIssue)) {
+                    matches.add(element);
                 }
-            }
-        } catch (IOException e) {
-            log.error("Problem occured while reading the sql file for " + basic_name + " import", e);
+            });
+            Collections.sort(matches);
+            return BSZ_BodenseeImport_PageTable.of(matches);
         }
-
-        // sort all elements in the list first by order number
-        Collections.sort(elements);
-        return elements;
+        return getDumpIndex(sqlFile).getPages(inYearAndIssue);
     }
 
     /**
@@ -502,20 +870,20 @@ public class BSZ_BodenseeImport_Helper {
      * structural element incl. the prefix 'bsz'
      * 
      * @param ds the structural element to use
-     * @param field the metadata field that is added or adapted
+     * @param field the metadata type that is added or adapted
      * @param value the metadata value (the identifier) to use in case it is still missing
      * 
      * @throws MetadataTypeNotAllowedException
      */
-    private void adaptIdentifier(DocStruct ds, String field, String value) throws MetadataTypeNotAllowedException {
-        List<? extends Metadata> mdlist = ds.getAllMetadataByType(prefs.getMetadataTypeByName(field));
+    private void adaptIdentifier(DocStruct ds, MetadataType field, String value) throws MetadataTypeNotAllowedException {
+        List<? extends Metadata> mdlist = ds.getAllMetadataByType(field);
         if (mdlist != null && mdlist.size() > 0) {
             Metadata md = mdlist.get(0);
             if (md != null && !md.getValue().startsWith("bsz")) {
                 md.setValue("bsz" + md.getValue());
             }
         } else {
-            Metadata md2 = new Metadata(prefs.getMetadataTypeByName(field));
+            Metadata md2 = new Metadata(field);
             md2.setValue("bsz" + value);
             ds.addMetadata(md2);
         }
@@ -525,13 +893,13 @@ public class BSZ_BodenseeImport_Helper {
      * Method to add a specific metadata to a given structural element
      * 
      * @param ds structural element to use
-     * @param field the metadata field to create
+     * @param field the metadata type to create
      * @param value the information the shall be stored as metadata in the given field
      * 
      * @throws MetadataTypeNotAllowedException
      */
-    private void addMetadata(DocStruct ds, String field, String value) throws MetadataTypeNotAllowedException {
-        Metadata mdColl = new Metadata(prefs.getMetadataTypeByName(field));
+    private void addMetadata(DocStruct ds, MetadataType field, String value) throws MetadataTypeNotAllowedException {
+        Metadata mdColl = new Metadata(field);
         mdColl.setValue(value);
         ds.addMetadata(mdColl);
     }
@@ -0,0 +1,448 @@
+package de.intranda.goobi.plugins.bsz;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.FileStore;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HexFormat;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import org.apache.commons.lang.SystemUtils;
+
+import lombok.Getter;
+import lombok.Setter;
+import lombok.extern.log4j.Log4j;
+
+/**
+ * Puts the images of a volume into the temp folder of Goobi. Instead of copying each image, it can be linked to its source: as hard link or as
+ * reflink (a copy-on-write copy, where the filesystem supports it) if source and target are on the same filesystem, or as symbolic link. If the
+ * chosen strategy is not possible, the images are copied instead, for the rest of the volume. The images of a volume are collected first and then
+ * staged by a bounded number of threads, which can be shared by all volumes of an import, each copy is done with
+ * {@link FileChannel#transferTo(long, long, java.nio.channels.WritableByteChannel)}. Targets that are already identical to their source, e.g. from
+ * an import that was interrupted, are kept as they are. If a manifest is requested, the SHA-256 digest of each copied image is computed while its
+ * bytes pass through, linked and kept images are read once for it.
+ */
+@Log4j
+public class BSZ_BodenseeImport_ImageStager {
+
+    public static final int DEFAULT_THREADS = 8;
+    public static final String MANIFEST_NAME = "manifest-sha256.txt";
+    private static final int BUFFER_SIZE = 1024 * 1024;
+
+    /**
+     * The ways to put an image into the temp folder
+     */
+    public enum Strategy {
+        // the target is a second name of the same file, changes of one are changes of the other
+        HARDLINK,
+        // the target shares the blocks of the source until one of them is changed, only on Linux with filesystems like btrfs or xfs
+        REFLINK,
+        // the target points to the source, the source must stay in place as long as the process uses it
+        SYMLINK,
+        COPY;
+
+        /**
+         * @param value the name of a strategy, case insensitive
+         * @return the strategy with that name or COPY if the value is empty or unknown
+         */
+        public static Strategy getByName(String value) {
+            if (value != null) {
+                for (Strategy strategy : values()) {
+                    if (strategy.name().equalsIgnoreCase(value.trim())) {
+                        return strategy;
+                    }
+                }
+            }
+            return COPY;
+        }
+    }
+
+    private final Strategy configured;
+    private final int threads;
+    // strategy for the next image, falls back to COPY if the configured one is not possible
+    @Getter
+    private volatile Strategy strategy;
+    private boolean checked;
+    // images to stage, source and target of each
+    private final List<Path[]> jobs = new ArrayList<>();
+    private final AtomicInteger linked = new AtomicInteger();
+    private final AtomicInteger copied = new AtomicInteger();
+    private final AtomicInteger skipped = new AtomicInteger();
+    private final AtomicLong copiedBytes = new AtomicLong();
+    private final long start = System.nanoTime();
+    // keep targets with the same size and modification time as their source
+    @Setter
+    private boolean skipIdentical = true;
+    // compare the content of such targets with their source as well before they are kept
+    @Setter
+    private boolean verifyContent = false;
+    // folder of the manifest, the paths in the manifest are relative to it, null if no manifest is written
+    private Path manifestFolder;
+    private final Map<String, String> digests = new ConcurrentHashMap<>();
+    // pool that is shared with the stagers of other volumes to bound the number of images staged at the same time in the whole import, null to
+    // stage the images of this volume with a pool of its own
+    @Setter
+    private ExecutorService executor;
+
+    /**
+     * @param strategy the configured strategy
+     * @param threads the maximum number of images that are staged at the same time
+     */
+    public BSZ_BodenseeImport_ImageStager(Strategy strategy, int threads) {
+        this.configured = strategy == null ? Strategy.COPY : strategy;
+        this.strategy = this.configured;
+        this.threads = Math.max(1, threads);
+    }
+
+    /**
+     * Add an image to stage with {@link #stageAll()}
+     *
+     * @param source the image
+     * @param target the file in the temp folder, its folder must exist
+     */
+    public void add(Path source, Path target) {
+        jobs.add(new Path[] { source, target });
+    }
+
+    /**
+     * Method to stage all added images. All images are tried, even if some of them fail. The target names are given by the caller, so the result
+     * does not depend on the order in which the threads finish.
+     *
+     * @throws IOException if any image cannot be copied either, the message lists the failed images
+     */
+    public void stageAll() throws IOException {
+        if (jobs.isEmpty()) {
+            return;
+        }
+        checkFileStores(jobs.get(0)[0], jobs.get(0)[1].toAbsolutePath().getParent());
+        List<String> failures = Collections.synchronizedList(new ArrayList<>());
+        int poolSize = Math.min(threads, jobs.size());
+        if (executor == null && poolSize == 1) {
+            for (Path[] job : jobs) {
+                stage(job, failures);
+            }
+        } else {
+            ExecutorService pool = executor == null ? Executors.newFixedThreadPool(poolSize) : executor;
+            List<Future<?>> results = new ArrayList<>();
+            try {
+                for (Path[] job : jobs) {
+                    results.add(pool.submit(() -> stage(job, failures)));
+                }
+                for (Future<?> result : results) {
+                    result.get();
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IOException("Staging of the images was interrupted", e);
+            } catch (ExecutionException e) {
+                throw new IOException("Staging of the images failed", e.getCause());
+            } finally {
+                if (pool == executor) {
+                    // the shared pool is kept, only the remaining images of this volume are dropped
+                    results.forEach(result -> result.cancel(true));
+                } else {
+                    pool.shutdownNow();
+                }
+            }
+        }
+        jobs.clear();
+        if (!failures.isEmpty()) {
+            Collections.sort(failures);
+            throw new IOException(failures.size() + " images cannot be staged: " + String.join("; ", failures));
+        }
+    }
+
+    /**
+     * Method to put all files of a folder and its sub folders into a folder of the temp folder, keeping their relative paths
+     *
+     * @param sourceFolder the folder of the images
+     * @param targetFolder the folder in the temp folder, it is created if necessary
+     * @throws IOException if a file cannot be copied either
+     */
+    public void stageFolder(Path sourceFolder, Path targetFolder) throws IOException {
+        List<Path> files;
+        try (Stream<Path> stream = Files.walk(sourceFolder)) {
+            files = stream.filter(Files::isRegularFile).sorted().collect(Collectors.toList());
+        }
+        for (Path file : files) {
+            Path target = targetFolder.resolve(sourceFolder.relativize(file).toString());
+            Files.createDirectories(target.getParent());
+            add(file, target);
+        }
+        stageAll();
+    }
+
+    /**
+     * Method to write the number of linked and copied images and the throughput of the copies to the log
+     *
+     * @param name the name of the volume
+     */
+    public void logSummary(String name) {
+        long millis = Math.max(1, TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+        long megabytes = copiedBytes.get() / (1024 * 1024);
+        log.info("Staged " + (linked.get() + copied.get() + skipped.get()) + " images of " + name + " with " + threads + " threads in " + millis
+                + " ms: " + skipped.get() + " already in place, " + linked.get() + " as " + configured + ", " + copied.get() + " copied (" + megabytes
+                + " MB, " + (megabytes * 1000 / millis) + " MB/s)");
+    }
+
+    /**
+     * Write a manifest with the SHA-256 digests of all staged images into the given folder. The images that are kept from an earlier run are read
+     * again, as their content may have changed without their size or modification time.
+     *
+     * @param folder the process folder in the temp folder, all targets must be inside of it
+     */
+    public void setManifestFolder(Path folder) {
+        this.manifestFolder = folder.toAbsolutePath().normalize();
+        log.info("A checksum manifest is written into " + manifestFolder + ", so the images are copied through a buffer instead of with transferTo");
+    }
+
+    /**
+     * Method to write the manifest with the digests of all images that were staged by this stager. The manifest is built from these images only, an
+     * existing manifest is replaced with all of its entries, so images of an earlier run that are not part of the volume anymore are not listed. The
+     * lines are sorted by their path.
+     *
+     * @throws IOException if the manifest cannot be written
+     */
+    public void writeManifest() throws IOException {
+        if (manifestFolder == null) {
+            return;
+        }
+        Path manifest = manifestFolder.resolve(MANIFEST_NAME);
+        List<String> lines = new ArrayList<>(digests.size());
+        new TreeMap<>(digests).forEach((path, digest) -> lines.add(digest + "  " + path));
+        Files.createDirectories(manifestFolder);
+        Path tempFile = Files.createTempFile(manifestFolder, MANIFEST_NAME, ".tmp");
+        try {
+            Files.write(tempFile, lines, StandardCharsets.UTF_8);
+            Files.move(tempFile, manifest, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            Files.deleteIfExists(tempFile);
+        }
+        log.debug("Wrote " + digests.size() + " digests into " + manifest);
+    }
+
+    private void stage(Path[] job, List<String> failures) {
+        Path source = job[0];
+        Path target = job[1];
+        try {
+            String digest = stage(source, target);
+            if (manifestFolder != null) {
+                digests.put(getManifestPath(target), digest);
+            }
+        } catch (IOException e) {
+            log.error("Image " + source + " cannot be staged as " + target, e);
+            failures.add(source + " (" + e + ")");
+        }
+    }
+
+    /**
+     * @return the digest of the image if a manifest is written, null otherwise
+     */
+    private String stage(Path source, Path target) throws IOException {
+        Strategy current = strategy;
+        if (skipIdentical && isIdentical(current, source, target)) {
+            skipped.incrementAndGet();
+            if (manifestFolder == null) {
+                return null;
+            }
+            // the manifest has to describe the bytes that are really there
+            return digest(target);
+        }
+        // an existing target may be a link to the source, so it is never written into
+        Files.deleteIfExists(target);
+        if (current != Strategy.COPY) {
+            try {
+                link(current, source, target);
+                linked.incrementAndGet();
+                return manifestFolder == null ? null : digest(source);
+            } catch (IOException | UnsupportedOperationException e) {
+                // the copy shows if the source itself is the problem
+                Files.deleteIfExists(target);
+                String digest = copy(source, target);
+                fallBack(current, source + ": " + e.getMessage());
+                return digest;
+            }
+        }
+        return copy(source, target);
+    }
+
+    /**
+     * Check if the target of a former run can be kept. A copy is only complete if its modification time is set, this is done after its last byte
+     * is written.
+     */
+    private boolean isIdentical(Strategy current, Path source, Path target) throws IOException {
+        if (Files.isSymbolicLink(target)) {
+            // a link is only kept as long as links are wanted
+            return current == Strategy.SYMLINK && Files.readSymbolicLink(target).equals(source.toAbsolutePath());
+        }
+        if (!Files.exists(target)) {
+            return false;
+        }
+        if (Files.isSameFile(source, target)) {
+            // a hard link of the source
+            return current == Strategy.HARDLINK;
+        }
+        if (Files.size(source) != Files.size(target)
+                || Files.getLastModifiedTime(source).toMillis() != Files.getLastModifiedTime(target).toMillis()) {
+            return false;
+        }
+        return !verifyContent || Files.mismatch(source, target) == -1;
+    }
+
+    private synchronized void checkFileStores(Path source, Path targetFolder) {
+        if (checked || (strategy != Strategy.HARDLINK && strategy != Strategy.REFLINK)) {
+            return;
+        }
+        checked = true;
+        try {
+            FileStore sourceStore = Files.getFileStore(source);
+            FileStore targetStore = Files.getFileStore(targetFolder);
+            if (!sourceStore.equals(targetStore)) {
+                fallBack(strategy, "source on " + sourceStore + ", target on " + targetStore);
+            }
+        } catch (IOException e) {
+            // the first image shows if linking works
+            log.debug("Filesystems of " + source + " and " + targetFolder + " cannot be compared: " + e.getMessage());
+        }
+    }
+
+    private static void link(Strategy strategy, Path source, Path target) throws IOException {
+        switch (strategy) {
+            case HARDLINK:
+                Files.createLink(target, source);
+                break;
+            case SYMLINK:
+                Files.createSymbolicLink(target, source.toAbsolutePath());
+                break;
+            case REFLINK:
+                reflink(source, target);
+                break;
+            default:
+                throw new UnsupportedOperationException(strategy + " is no link");
+        }
+    }
+
+    /**
+     * Java has no reflink call, so cp of GNU coreutils is used. With --reflink=always it fails instead of making a normal copy.
+     */
+    private static void reflink(Path source, Path target) throws IOException {
+        if (!SystemUtils.IS_OS_LINUX) {
+            throw new UnsupportedOperationException("reflinks are only created on Linux");
+        }
+        Process process = new ProcessBuilder("cp", "--reflink=always", "--preserve=timestamps", source.toString(), target.toString())
+                .redirectErrorStream(true)
+                .start();
+        String output;
+        try (InputStream in = process.getInputStream()) {
+            output = new String(in.readAllBytes(), StandardCharsets.UTF_8).trim();
+        }
+        try {
+            if (process.waitFor() != 0) {
+                throw new IOException("cp --reflink failed: " + output);
+            }
+        } catch (InterruptedException e) {
+            process.destroy();
+            Thread.currentThread().interrupt();
+            throw new IOException("cp --reflink was interrupted", e);
+        }
+    }
+
+    /**
+     * Copy the image with transferTo, so the kernel can move the bytes without passing them through the heap. If a manifest is written, the bytes
+     * are copied through a buffer instead and the digest is updated on the way.
+     *
+     * @return the digest of the image if a manifest is written, null otherwise
+     */
+    private String copy(Path source, Path target) throws IOException {
+        long size;
+        String digest = null;
+        try (FileChannel in = FileChannel.open(source, StandardOpenOption.READ);
+                FileChannel out = FileChannel.open(target, StandardOpenOption.WRITE, StandardOpenOption.CREATE_NEW)) {
+            size = in.size();
+            if (manifestFolder != null) {
+                MessageDigest md = newDigest();
+                ByteBuffer buffer = ByteBuffer.allocate(BUFFER_SIZE);
+                long position = 0;
+                while (in.read(buffer) != -1) {
+                    buffer.flip();
+                    md.update(buffer.array(), 0, buffer.limit());
+                    position += buffer.limit();
+                    while (buffer.hasRemaining()) {
+                        out.write(buffer);
+                    }
+                    buffer.clear();
+                }
+                size = position;
+                digest = HexFormat.of().formatHex(md.digest());
+            } else {
+                long position = 0;
+                while (position < size) {
+                    long transferred = in.transferTo(position, size - position, out);
+                    if (transferred <= 0) {
+                        throw new IOException(source + " was shortened while it was copied");
+                    }
+                    position += transferred;
+                }
+            }
+        }
+        Files.setLastModifiedTime(target, Files.getLastModifiedTime(source));
+        copied.incrementAndGet();
+        copiedBytes.addAndGet(size);
+        return digest;
+    }
+
+    private static String digest(Path file) throws IOException {
+        MessageDigest md = newDigest();
+        ByteBuffer buffer = ByteBuffer.allocate(BUFFER_SIZE);
+        try (FileChannel in = FileChannel.open(file, StandardOpenOption.READ)) {
+            while (in.read(buffer) != -1) {
+                buffer.flip();
+                md.update(buffer);
+                buffer.clear();
+            }
+        }
+        return HexFormat.of().formatHex(md.digest());
+    }
+
+    private static MessageDigest newDigest() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            // every Java platform has to support SHA-256
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private String getManifestPath(Path target) {
+        return manifestFolder.relativize(target.toAbsolutePath().normalize()).toString().replace('\\', '/');
+    }
+
+    private synchronized void fallBack(Strategy failed, String reason) {
+        if (strategy == failed) {
+            log.warn("Images cannot be staged as " + failed + " (" + reason + "), they are copied instead");
+            strategy = Strategy.COPY;
+        }
+    }
+}
@@ -0,0 +1,136 @@
+package de.intranda.goobi.plugins.bsz;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.Reader;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+
+import lombok.extern.log4j.Log4j;
+
+/**
+ * Small state file of a journal (e.g. wbjb.state) that contains the content hash of each year/issue group that was imported successfully. When BSZ
+ * delivers an updated dump, only the groups whose hash differs from the stored one need to be imported again. The plugin only prepares the import,
+ * the process is created by Goobi afterwards. So a group is first marked as pending with the number of processes with its title at that time. It
+ * counts as imported once Goobi created its process, this is checked the next time the groups are listed.
+ */
+@Log4j
+public class BSZ_BodenseeImport_ImportState {
+
+    public static final String FILE_EXTENSION = ".state";
+    private static final String PENDING_PREFIX = "pending.";
+
+    private final File stateFile;
+    private final Properties hashes = new Properties();
+
+    private BSZ_BodenseeImport_ImportState(File stateFile) {
+        this.stateFile = stateFile;
+    }
+
+    /**
+     * Read the state file, a missing or unreadable file is treated as if nothing was imported yet
+     *
+     * @param stateFile the state file of the journal
+     * @return the state of the journal
+     */
+    public static BSZ_BodenseeImport_ImportState load(File stateFile) {
+        BSZ_BodenseeImport_ImportState state = new BSZ_BodenseeImport_ImportState(stateFile);
+        if (stateFile.exists()) {
+            try (Reader reader = Files.newBufferedReader(stateFile.toPath(), StandardCharsets.UTF_8)) {
+                state.hashes.load(reader);
+            } catch (IOException e) {
+                log.warn("State file " + stateFile.getAbsolutePath() + " cannot be read, all groups are treated as changed", e);
+                state.hashes.clear();
+            }
+        }
+        return state;
+    }
+
+    /**
+     * Get the keys of all groups that were not imported yet or whose content changed since the last successful import
+     *
+     * @param currentHashes the current hashes of all groups of the dump, ordered by the key
+     * @return ordered list of the keys of the changed groups
+     */
+    public synchronized List<String> getChangedKeys(Map<String, String> currentHashes) {
+        List<String> keys = new ArrayList<>();
+        for (Map.Entry<String, String> entry : currentHashes.entrySet()) {
+            if (!entry.getValue().equals(hashes.getProperty(entry.getKey()))) {
+                keys.add(entry.getKey());
+            }
+        }
+        return keys;
+    }
+
+    /**
+     * Counts the processes with a title, to find out if Goobi created the process of a group
+     */
+    public interface ProcessCounter {
+        /**
+         * @return the number of processes with this title, or -1 if they cannot be counted
+         */
+        int count(String processTitle);
+    }
+
+    /**
+     * Remember a group whose import was prepared, it counts as imported as soon as its process was created
+     *
+     * @param key the year/issue key of the group
+     * @param hash the content hash of the prepared rows
+     * @param processTitle the title of the process that Goobi shall create
+     * @param existingProcesses the number of processes with this title before the import, -1 if unknown
+     */
+    public synchronized void markPending(String key, String hash, String processTitle, int existingProcesses) {
+        hashes.setProperty(PENDING_PREFIX + key, hash + " " + existingProcesses + " " + processTitle);
+        store();
+    }
+
+    /**
+     * Mark all pending groups as imported whose process was created in the meantime. Groups whose process was not created stay pending and are
+     * listed as changed.
+     *
+     * @param counter counts the processes of a title
+     */
+    public synchronized void confirmPending(ProcessCounter counter) {
+        boolean changed = false;
+        for (String name : hashes.stringPropertyNames()) {
+            if (!name.startsWith(PENDING_PREFIX)) {
+                continue;
+            }
+            String[] parts = hashes.getProperty(name).split(" ", 3);
+            if (parts.length < 3 || !parts[1].matches("-?\\d+")) {
+                hashes.remove(name);
+                changed = true;
+                continue;
+            }
+            int count = counter.count(parts[2]);
+            if (count > 0 && count > Integer.parseInt(parts[1])) {
+                hashes.setProperty(name.substring(PENDING_PREFIX.length()), parts[0]);
+                hashes.remove(name);
+                changed = true;
+            }
+        }
+        if (changed) {
+            store();
+        }
+    }
+
+    private void store() {
+        // write into a temporary file first to never leave a broken state behind
+        File tempFile = new File(stateFile.getParentFile(), stateFile.getName() + ".tmp");
+        try {
+            try (Writer writer = Files.newBufferedWriter(tempFile.toPath(), StandardCharsets.UTF_8)) {
+                hashes.store(writer, "content hashes of the successfully imported year/issue groups");
+            }
+            Files.move(tempFile.toPath(), stateFile.toPath(), StandardCopyOption.REPLACE_EXISTING);
+        } catch (IOException e) {
+            log.warn("State file " + stateFile.getAbsolutePath() + " cannot be written", e);
+        }
+    }
+}
@@ -0,0 +1,262 @@
+package de.intranda.goobi.plugins.bsz;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.util.function.Consumer;
+
+/**
+ * Reader for sql dumps that maps the file into memory instead of reading it into a list of lines. The line boundaries are searched directly in the
+ * mapped bytes and only the lines that are needed by the {@link BSZ_BodenseeImport_SqlParser} are decoded. If a year is given, single line INSERT
+ * statements that do not contain a string literal starting with this year and COPY data lines that do not contain the year at all are skipped
+ * without decoding them. This way the heap usage does not depend on the size of the dump.
+ */
+public class BSZ_BodenseeImport_MappedReader {
+
+    // size of the mapped window, files larger than this are mapped in several line aligned parts
+    private static final long WINDOW_SIZE = 256L * 1024 * 1024;
+
+    static final byte[] INSERT_PREFIX = "INSERT INTO".getBytes(StandardCharsets.US_ASCII);
+    static final byte[] COPY_PREFIX = "COPY ".getBytes(StandardCharsets.US_ASCII);
+    static final byte[] COPY_END = "\\.".getBytes(StandardCharsets.US_ASCII);
+    static final byte[] SET_PREFIX = "SET ".getBytes(StandardCharsets.US_ASCII);
+
+    private final File sqlFile;
+    private final CharsetDecoder decoder = StandardCharsets.UTF_8.newDecoder()
+            .onMalformedInput(CodingErrorAction.REPLACE)
+            .onUnmappableCharacter(CodingErrorAction.REPLACE);
+    private CharBuffer chars = CharBuffer.allocate(1024);
+    private BSZ_BodenseeImport_SqlParser parser;
+    private byte[] yearFilter;
+    private byte[] copyYearFilter;
+    private long statementStart;
+    private long rowStart;
+    private long lineEnd;
+
+    public BSZ_BodenseeImport_MappedReader(File sqlFile) {
+        this.sqlFile = sqlFile;
+    }
+
+    /**
+     * Read all rows of the dump and pass them to the consumer
+     *
+     * @param year if not null, single line statements without a string literal starting with this year and COPY rows without this year are
+     *            skipped, so that the consumer may get only the rows of this year (and maybe a few more that contain the same text in another field)
+     * @param consumer the consumer to get the elements
+     * @throws IOException
+     */
+    public void read(String year, Consumer<BSZ_BodenseeImport_Element> consumer) throws IOException {
+        parser = new BSZ_BodenseeImport_SqlParser(consumer);
+        yearFilter = year == null ? null : ("'" + year).getBytes(StandardCharsets.UTF_8);
+        copyYearFilter = year == null ? null : year.getBytes(StandardCharsets.UTF_8);
+
+        try (FileChannel channel = FileChannel.open(sqlFile.toPath(), StandardOpenOption.READ)) {
+            forEachLine(channel, 0, channel.size(), this::handleLine);
+        }
+    }
+
+    /**
+     * Read the rows of a part of the dump and pass them to the consumer. The part must start at the beginning of a statement or of a data line
+     * inside of a COPY block.
+     *
+     * @param start offset of the first line of the part
+     * @param end offset after the last line of the part
+     * @param headerOffset offset of the COPY statement if the part starts within a COPY block, -1 otherwise
+     * @param header the COPY statement if the part starts within a COPY block, null otherwise
+     * @param standardConformingStrings the setting of standard_conforming_strings that is valid at the start of the part
+     * @param consumer the consumer to get the elements
+     * @throws IOException
+     */
+    public void readPart(long start, long end, long headerOffset, String header, boolean standardConformingStrings,
+            Consumer<BSZ_BodenseeImport_Element> consumer) throws IOException {
+        parser = new BSZ_BodenseeImport_SqlParser(consumer);
+        parser.setStandardConformingStrings(standardConformingStrings);
+        yearFilter = null;
+        copyYearFilter = null;
+        if (header != null) {
+            parser.parseLine(header);
+            statementStart = headerOffset;
+        }
+
+        try (FileChannel channel = FileChannel.open(sqlFile.toPath(), StandardOpenOption.READ)) {
+            forEachLine(channel, start, end, this::handleLine);
+        }
+    }
+
+    /**
+     * Handler for the lines of a mapped file
+     */
+    interface LineHandler {
+        /**
+         * @param buffer the mapped part of the file
+         * @param bufferPosition the offset of the mapped part in the file
+         * @param start the start of the line in the buffer
+         * @param end the end of the line in the buffer, without the line break
+         */
+        void handle(ByteBuffer buffer, long bufferPosition, int start, int end) throws IOException;
+    }
+
+    /**
+     * Map the given part of the file in line aligned windows and pass each line to the handler
+     */
+    static void forEachLine(FileChannel channel, long start, long end, LineHandler handler) throws IOException {
+        long position = start;
+        while (position < end) {
+            long length = Math.min(WINDOW_SIZE, end - position);
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, position, length);
+            int limit = (int) length;
+            int lineStart = 0;
+            for (int i = 0; i < limit; i++) {
+                if (buffer.get(i) == '\n') {
+                    handler.handle(buffer, position, lineStart, i);
+                    lineStart = i + 1;
+                }
+            }
+            if (position + length >= end) {
+                // last part, the last line may have no line break
+                if (lineStart < limit) {
+                    handler.handle(buffer, position, lineStart, limit);
+                }
+                position = end;
+            } else if (lineStart == 0) {
+                throw new IOException("Line is longer than " + WINDOW_SIZE + " bytes");
+            } else {
+                // continue with the incomplete line in the next window
+                position += lineStart;
+            }
+        }
+    }
+
+    private void handleLine(ByteBuffer buffer, long bufferPosition, int start, int end) throws IOException {
+        if (end > start && buffer.get(end - 1) == '\r') {
+            end--;
+        }
+        if (!parser.isInRow()) {
+            rowStart = bufferPosition + start;
+        }
+        lineEnd = bufferPosition + end;
+        if (parser.isInCopy()) {
+            // each data line of a COPY block is one complete row
+            if (copyYearFilter != null && !(end - start == COPY_END.length && startsWith(buffer, start, end, COPY_END))
+                    && !contains(buffer, start, end, copyYearFilter)) {
+                return;
+            }
+        } else if (!parser.isInStatement()) {
+            statementStart = bufferPosition + start;
+            if (startsWith(buffer, start, end, SET_PREFIX) || startsWith(buffer, start, end, COPY_PREFIX)) {
+                parser.parseLine(decode(buffer, start, end));
+                return;
+            }
+            if (!startsWith(buffer, start, end, INSERT_PREFIX)) {
+                return;
+            }
+            // a complete statement without the requested year does not need to be decoded
+            if (yearFilter != null && endsWithSemicolon(buffer, start, end) && !contains(buffer, start, end, yearFilter)) {
+                return;
+            }
+        }
+        parser.parseLine(decode(buffer, start, end));
+    }
+
+    /**
+     * Get the byte offset in the file where the row that is currently passed to the consumer starts. This is the start of the line where the row
+     * begins, so it may contain other rows too.
+     *
+     * @return the offset of the current row
+     */
+    public long getRowStart() {
+        return rowStart;
+    }
+
+    /**
+     * Get the byte offset in the file where the INSERT statement or COPY block starts that contains the row that is currently passed to the consumer
+     *
+     * @return the offset of the first line of the current statement
+     */
+    public long getStatementStart() {
+        return statementStart;
+    }
+
+    /**
+     * Get the byte offset in the file where the line ends in which the row that is currently passed to the consumer ends
+     *
+     * @return the end offset of the current row, without the line break
+     */
+    public long getRowEnd() {
+        return lineEnd;
+    }
+
+    /**
+     * @return true if backslashes in string literals of the dump that was read are normal characters
+     */
+    public boolean isStandardConformingStrings() {
+        return parser != null && parser.isStandardConformingStrings();
+    }
+
+    CharBuffer decode(ByteBuffer buffer, int start, int end) throws IOException {
+        ByteBuffer line = buffer.duplicate();
+        line.limit(end);
+        line.position(start);
+        if (chars.capacity() < end - start) {
+            chars = CharBuffer.allocate(end - start);
+        }
+        chars.clear();
+        decoder.reset();
+        CoderResult result = decoder.decode(line, chars, true);
+        if (result.isError()) {
+            result.throwException();
+        }
+        decoder.flush(chars);
+        chars.flip();
+        return chars;
+    }
+
+    static boolean startsWith(ByteBuffer buffer, int start, int end, byte[] prefix) {
+        if (end - start < prefix.length) {
+            return false;
+        }
+        for (int i = 0; i < prefix.length; i++) {
+            if (buffer.get(start + i) != prefix[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static boolean endsWithSemicolon(ByteBuffer buffer, int start, int end) {
+        for (int i = end - 1; i >= start; i--) {
+            byte b = buffer.get(i);
+            if (b == ';') {
+                return true;
+            }
+            if (b != ' ' && b != '\t') {
+                return false;
+            }
+        }
+        return false;
+    }
+
+    private static boolean contains(ByteBuffer buffer, int start, int end, byte[] pattern) {
+        int last = end - pattern.length;
+        for (int i = start; i <= last; i++) {
+            if (buffer.get(i) == pattern[0]) {
+                int j = 1;
+                while (j < pattern.length && buffer.get(i + j) == pattern[j]) {
+                    j++;
+                }
+                if (j == pattern.length) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+}
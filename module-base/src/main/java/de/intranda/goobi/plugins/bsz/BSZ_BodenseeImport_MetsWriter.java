@@ -0,0 +1,278 @@
+package de.intranda.goobi.plugins.bsz;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+import javax.xml.namespace.QName;
+import javax.xml.stream.XMLEventFactory;
+import javax.xml.stream.XMLEventReader;
+import javax.xml.stream.XMLEventWriter;
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLOutputFactory;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.events.Attribute;
+import javax.xml.stream.events.StartElement;
+import javax.xml.stream.events.XMLEvent;
+
+import lombok.extern.log4j.Log4j;
+import ugh.dl.ContentFile;
+import ugh.dl.DocStruct;
+import ugh.dl.Fileformat;
+import ugh.dl.Prefs;
+import ugh.exceptions.UGHException;
+import ugh.fileformats.mets.MetsMods;
+
+/**
+ * Writer for the METS files of very large volumes. The pages are not created as structural elements of the digital document, they are collected here
+ * as a plain list of page labels and image locations. The bibliographic part of the volume (metadata, logical structure, anchor file) is still
+ * written by {@link MetsMods}, but without any pages, so its document tree stays small. This file is then streamed once more and the physical pages,
+ * the file section and the links between the logical elements and the pages are written into it as they pass by, using the same elements,
+ * attributes and identifiers as {@link MetsMods}. The location and the mimetype of each file are taken from the same {@link ContentFile} that is
+ * created for a page without this writer.
+ * <p>
+ * This only saves the page tree of the digital document. {@link MetsMods} still writes the complete bibliographic part of each volume, and the
+ * written file is parsed once more to add the pages, so the time to write a volume is not less than without this writer.
+ */
+@Log4j
+public class BSZ_BodenseeImport_MetsWriter {
+
+    private static final String METS_NS = "http://www.loc.gov/METS/";
+    private static final String XLINK_NS = "http://www.w3.org/1999/xlink";
+    private static final String METS_PREFIX = "mets";
+    private static final String XLINK_PREFIX = "xlink";
+
+    private static final QName ID = new QName("ID");
+    private static final QName TYPE = new QName("TYPE");
+
+    private final String pageType;
+    // label, image location and mimetype of each page, in the order of the pages
+    private final List<String> labels = new ArrayList<>();
+    private final List<String> locations = new ArrayList<>();
+    private final List<String> mimetypes = new ArrayList<>();
+    // first and last page (exclusive) that each logical element is linked to
+    private final Map<DocStruct, int[]> links = new IdentityHashMap<>();
+
+    private final XMLEventFactory events = XMLEventFactory.newInstance();
+
+    /**
+     * @param types the types of the ruleset
+     */
+    public BSZ_BodenseeImport_MetsWriter(BSZ_BodenseeImport_RulesetTypes types) {
+        this.pageType = types.getPage().getName();
+    }
+
+    /**
+     * Add the next page of the volume
+     *
+     * @param label the page label, can be null
+     * @param file the image of the page, only its location and its mimetype are kept
+     * @return the index of the page
+     */
+    public int addPage(String label, ContentFile file) {
+        labels.add(label);
+        locations.add(file.getLocation());
+        mimetypes.add(file.getMimetype());
+        return labels.size() - 1;
+    }
+
+    /**
+     * Link a page to a logical element. The pages of an element must follow one another.
+     *
+     * @param logical the logical element
+     * @param page the index of the page
+     */
+    public void link(DocStruct logical, int page) {
+        int[] range = links.get(logical);
+        if (range == null) {
+            links.put(logical, new int[] { page, page + 1 });
+        } else {
+            range[1] = page + 1;
+        }
+    }
+
+    /**
+     * Method to write the METS file of the volume. The physical structure of the given {@link Fileformat} must not contain any pages.
+     *
+     * @param ff the volume without pages
+     * @param prefs the ruleset
+     * @param fileName the METS file to write, an anchor file is written next to it as by {@link MetsMods}
+     * @throws UGHException if the bibliographic part cannot be written
+     * @throws IOException if the pages cannot be written into the file
+     */
+    public void write(Fileformat ff, Prefs prefs, String fileName) throws UGHException, IOException {
+        MetsMods mm = new MetsMods(prefs);
+        mm.setDigitalDocument(ff.getDigitalDocument());
+        mm.write(fileName);
+
+        List<DocStruct> logicalElements = new ArrayList<>();
+        collect(ff.getDigitalDocument().getLogicalDocStruct(), logicalElements);
+
+        File file = new File(fileName);
+        File tempFile = new File(file.getParentFile(), file.getName() + ".tmp");
+        try (InputStream in = Files.newInputStream(file.toPath()); OutputStream out = Files.newOutputStream(tempFile.toPath())) {
+            XMLInputFactory inputFactory = XMLInputFactory.newInstance();
+            inputFactory.setProperty(XMLInputFactory.SUPPORT_DTD, false);
+            XMLEventReader reader = inputFactory.createXMLEventReader(in, "UTF-8");
+            XMLEventWriter writer = XMLOutputFactory.newInstance().createXMLEventWriter(out, "UTF-8");
+            stream(reader, writer, logicalElements);
+            writer.flush();
+            writer.close();
+            reader.close();
+        } catch (XMLStreamException e) {
+            Files.deleteIfExists(tempFile.toPath());
+            throw new IOException("Pages cannot be written into " + fileName + ": " + e.getMessage(), e);
+        }
+        Files.move(tempFile.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+        log.debug("Streamed " + labels.size() + " pages into '" + fileName + "'");
+    }
+
+    /**
+     * Copy the METS file written by {@link MetsMods} and add the pages, the files and the links on the way
+     */
+    private void stream(XMLEventReader reader, XMLEventWriter writer, List<DocStruct> logicalElements) throws XMLStreamException, IOException {
+        List<String> logicalIds = new ArrayList<>();
+        String structMap = null;
+        int physicalDepth = 0;
+        boolean fileSecWritten = false;
+        boolean structLinkWritten = false;
+
+        while (reader.hasNext()) {
+            XMLEvent event = reader.nextEvent();
+            if (event.isStartElement()) {
+                StartElement start = event.asStartElement();
+                String name = getMetsName(start.getName());
+                if ("structMap".equals(name)) {
+                    if (!fileSecWritten) {
+                        // the file section comes right before the first structMap
+                        writer.add(events.createStartElement(METS_PREFIX, METS_NS, "fileSec"));
+                        writeFiles(writer);
+                        writer.add(events.createEndElement(METS_PREFIX, METS_NS, "fileSec"));
+                        fileSecWritten = true;
+                    }
+                    structMap = getValue(start, TYPE);
+                } else if ("div".equals(name) && "LOGICAL".equals(structMap)) {
+                    logicalIds.add(getValue(start, ID));
+                } else if ("div".equals(name) && "PHYSICAL".equals(structMap)) {
+                    physicalDepth++;
+                }
+                writer.add(event);
+            } else if (event.isEndElement()) {
+                String name = getMetsName(event.asEndElement().getName());
+                if ("fileSec".equals(name)) {
+                    writeFiles(writer);
+                    fileSecWritten = true;
+                } else if ("structMap".equals(name)) {
+                    structMap = null;
+                } else if ("div".equals(name) && "PHYSICAL".equals(structMap) && --physicalDepth == 0) {
+                    // all pages are children of the physical root
+                    writePages(writer);
+                } else if ("structLink".equals(name)) {
+                    writeLinks(writer, logicalElements, logicalIds);
+                    structLinkWritten = true;
+                } else if ("mets".equals(name) && !structLinkWritten) {
+                    writer.add(events.createStartElement(METS_PREFIX, METS_NS, "structLink"));
+                    writeLinks(writer, logicalElements, logicalIds);
+                    writer.add(events.createEndElement(METS_PREFIX, METS_NS, "structLink"));
+                }
+                writer.add(event);
+            } else {
+                writer.add(event);
+            }
+        }
+    }
+
+    private void writeFiles(XMLEventWriter writer) throws XMLStreamException {
+        writer.add(events.createStartElement(METS_PREFIX, METS_NS, "fileGrp"));
+        writer.add(events.createAttribute("USE", "LOCAL"));
+        for (int i = 0; i < locations.size(); i++) {
+            String location = locations.get(i);
+            writer.add(events.createStartElement(METS_PREFIX, METS_NS, "file"));
+            writer.add(events.createAttribute("ID", getFileId(i)));
+            String mimetype = mimetypes.get(i);
+            if (mimetype != null && !mimetype.isEmpty()) {
+                writer.add(events.createAttribute("MIMETYPE", mimetype));
+            }
+            writer.add(events.createStartElement(METS_PREFIX, METS_NS, "FLocat"));
+            writer.add(events.createAttribute("LOCTYPE", "URL"));
+            writer.add(events.createAttribute(XLINK_PREFIX, XLINK_NS, "href", location));
+            writer.add(events.createEndElement(METS_PREFIX, METS_NS, "FLocat"));
+            writer.add(events.createEndElement(METS_PREFIX, METS_NS, "file"));
+        }
+        writer.add(events.createEndElement(METS_PREFIX, METS_NS, "fileGrp"));
+    }
+
+    private void writePages(XMLEventWriter writer) throws XMLStreamException {
+        for (int i = 0; i < labels.size(); i++) {
+            writer.add(events.createStartElement(METS_PREFIX, METS_NS, "div"));
+            writer.add(events.createAttribute("ID", getPageId(i)));
+            writer.add(events.createAttribute("ORDER", Integer.toString(i + 1)));
+            if (labels.get(i) != null) {
+                writer.add(events.createAttribute("ORDERLABEL", labels.get(i)));
+            }
+            writer.add(events.createAttribute("TYPE", pageType));
+            writer.add(events.createStartElement(METS_PREFIX, METS_NS, "fptr"));
+            writer.add(events.createAttribute("FILEID", getFileId(i)));
+            writer.add(events.createEndElement(METS_PREFIX, METS_NS, "fptr"));
+            writer.add(events.createEndElement(METS_PREFIX, METS_NS, "div"));
+        }
+    }
+
+    private void writeLinks(XMLEventWriter writer, List<DocStruct> logicalElements, List<String> logicalIds) throws XMLStreamException, IOException {
+        if (logicalElements.size() != logicalIds.size()) {
+            throw new IOException("The logical structMap contains " + logicalIds.size() + " elements instead of " + logicalElements.size());
+        }
+        for (int i = 0; i < logicalElements.size(); i++) {
+            // elements that are not part of the logical structure anymore are not linked, as by MetsMods
+            int[] range = links.get(logicalElements.get(i));
+            if (range == null) {
+                continue;
+            }
+            for (int page = range[0]; page < range[1]; page++) {
+                writer.add(events.createStartElement(METS_PREFIX, METS_NS, "smLink"));
+                writer.add(events.createAttribute(XLINK_PREFIX, XLINK_NS, "from", logicalIds.get(i)));
+                writer.add(events.createAttribute(XLINK_PREFIX, XLINK_NS, "to", getPageId(page)));
+                writer.add(events.createEndElement(METS_PREFIX, METS_NS, "smLink"));
+            }
+        }
+    }
+
+    /**
+     * Collect the logical elements in the order of the logical structMap
+     */
+    private static void collect(DocStruct ds, List<DocStruct> result) {
+        result.add(ds);
+        if (ds.getAllChildren() != null) {
+            for (DocStruct child : ds.getAllChildren()) {
+                collect(child, result);
+            }
+        }
+    }
+
+    private static String getMetsName(QName name) {
+        return METS_NS.equals(name.getNamespaceURI()) ? name.getLocalPart() : null;
+    }
+
+    private static String getValue(StartElement start, QName name) {
+        Attribute attribute = start.getAttributeByName(name);
+        return attribute == null ? null : attribute.getValue();
+    }
+
+    /**
+     * @return the identifier of the page, the physical root is PHYS_0000
+     */
+    private static String getPageId(int page) {
+        return String.format("PHYS_%04d", page + 1);
+    }
+
+    private static String getFileId(int page) {
+        return String.format("FILE_%04d", page);
+    }
+}
@@ -0,0 +1,118 @@
+package de.intranda.goobi.plugins.bsz;
+
+import java.util.concurrent.TimeUnit;
+
+import lombok.Setter;
+import lombok.extern.log4j.Log4j;
+import ugh.dl.ContentFile;
+import ugh.dl.DigitalDocument;
+import ugh.dl.DocStruct;
+import ugh.dl.Metadata;
+import ugh.dl.MetadataType;
+import ugh.exceptions.UGHException;
+
+/**
+ * Builds the physical structure of a volume out of its ordered page table in one pass: the page elements with their page numbers and image files,
+ * the issues as new booklets start and the links of the pages to the volume and to their issue. Everything that is the same for all pages (the
+ * types of the ruleset, the image location, the link type) is prepared once per volume. If a {@link BSZ_BodenseeImport_MetsWriter} is set, the pages
+ * are only collected by the writer and written straight into the METS file.
+ */
+@Log4j
+public class BSZ_BodenseeImport_PageStructureBuilder {
+
+    private static final String LOGICAL_PHYSICAL = "logical_physical";
+
+    private final DigitalDocument dd;
+    private final BSZ_BodenseeImport_RulesetTypes types;
+    private final String locationPrefix;
+    private final boolean linkIssues;
+    // if set, the pages are handed to this writer instead of being created as structural elements
+    @Setter
+    private BSZ_BodenseeImport_MetsWriter metsWriter;
+
+    /**
+     * Creates the structural element of an issue when its first page is reached and adds it to the logical structure
+     */
+    public interface IssueFactory {
+        DocStruct createIssue(BSZ_BodenseeImport_PageTable.Cursor firstPage) throws UGHException;
+    }
+
+    /**
+     * @param dd the digital document of the volume, its physical structure must exist already
+     * @param types the types of the ruleset
+     * @param locationPrefix the location of the image folder, the file name of each image is appended to it
+     * @param linkIssues true if the pages are linked to their issue as well, not only to the volume
+     */
+    public BSZ_BodenseeImport_PageStructureBuilder(DigitalDocument dd, BSZ_BodenseeImport_RulesetTypes types, String locationPrefix,
+            boolean linkIssues) {
+        this.dd = dd;
+        this.types = types;
+        this.locationPrefix = locationPrefix;
+        this.linkIssues = linkIssues;
+    }
+
+    /**
+     * Method to build the pages of a volume and to link them to the logical structure
+     *
+     * @param name the name of the volume, used for the log
+     * @param pages the pages of the volume in their order
+     * @param volume the logical element of the volume
+     * @param issues creates the issue for each new booklet
+     * @return the number of the image file of each page, in the order of the table
+     * @throws UGHException if the ruleset does not allow the structure
+     */
+    public int[] build(String name, BSZ_BodenseeImport_PageTable pages, DocStruct volume, IssueFactory issues) throws UGHException {
+        long start = System.nanoTime();
+        DocStruct physical = dd.getPhysicalDocStruct();
+        int[] imageNumbers = new int[pages.size()];
+        DocStruct issue = null;
+        String lastIssue = "";
+        int issueCount = 0;
+        int physicalPageNumber = 1;
+
+        BSZ_BodenseeImport_PageTable.Cursor page = pages.cursor();
+        while (page.next()) {
+            // create new issue docstruct if necessary
+            if (!lastIssue.equals(page.getBookletid())) {
+                lastIssue = page.getBookletid();
+                issue = issues.createIssue(page);
+                issueCount++;
+            }
+            imageNumbers[page.getPosition()] = physicalPageNumber;
+
+            // image name
+            ContentFile cf = new ContentFile();
+            cf.setLocation(locationPrefix + page.getFileName());
+
+            // no matter if new or current issue, add now all pages to current issue
+            if (issue != null && metsWriter != null) {
+                int index = metsWriter.addPage(page.getLabel(), cf);
+                physicalPageNumber++;
+                metsWriter.link(volume, index);
+                if (linkIssues) {
+                    metsWriter.link(issue, index);
+                }
+            } else if (issue != null) {
+                DocStruct dsPage = dd.createDocStruct(types.getPage());
+                physical.addChild(dsPage);
+                addMetadata(dsPage, types.getPhysPageNumber(), Integer.toString(physicalPageNumber++));
+                addMetadata(dsPage, types.getLogicalPageNumber(), page.getLabel());
+                volume.addReferenceTo(dsPage, LOGICAL_PHYSICAL);
+                if (linkIssues) {
+                    issue.addReferenceTo(dsPage, LOGICAL_PHYSICAL);
+                }
+                dsPage.addContentFile(cf);
+            }
+        }
+
+        log.info("Structure of " + name + " with " + (physicalPageNumber - 1) + " pages in " + issueCount + " issues built in "
+                + TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start) + " ms");
+        return imageNumbers;
+    }
+
+    private static void addMetadata(DocStruct ds, MetadataType type, String value) throws UGHException {
+        Metadata md = new Metadata(type);
+        md.setValue(value);
+        ds.addMetadata(md);
+    }
+}
@@ -0,0 +1,435 @@
+package de.intranda.goobi.plugins.bsz;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.commons.lang.StringUtils;
+
+/**
+ * Compact, read-only table of the pages of a journal. Instead of one {@link BSZ_BodenseeImport_Element} with seven strings per row the values are
+ * stored column by column: the values that repeat for many pages (journal, year, booklet, issue number, label, image folder and the beginning of
+ * the page id) are stored once in a dictionary and referenced by an int id, the running number is stored as int and only the end of the page id
+ * and the file name of the image are kept per page, as UTF-8 bytes in one shared array. The rows are read with a {@link Cursor}. A table can be a
+ * view of some rows of another table, the columns are shared then.
+ */
+public final class BSZ_BodenseeImport_PageTable {
+
+    private static final int NO_VALUE = -1;
+
+    private final int[] pageidPrefixes;
+    private final int[] bookletids;
+    private final int[] journalids;
+    private final int[] lfnrs;
+    // running numbers that are not a plain int are kept as text
+    private final Map<Integer, String> lfnrTexts;
+    private final int[] jahre;
+    private final int[] labels;
+    private final int[] folders;
+    private final int[] issueNumbers;
+    // end of the page id followed by the file name of each row, textOffsets[2 * row] is the start of the page id, textOffsets[2 * row + 1] the
+    // start of the file name and textOffsets[2 * row + 2] the end of the file name
+    private final byte[] text;
+    private final int[] textOffsets;
+
+    private final String[] pageidDictionary;
+    private final String[] bookletDictionary;
+    private final String[] journalDictionary;
+    private final String[] jahrDictionary;
+    private final String[] labelDictionary;
+    private final String[] folderDictionary;
+    private final String[] issueDictionary;
+    private final boolean[] numericIssues;
+
+    // rows of this table in the order to read them, null if all rows are read in their natural order
+    private final int[] rows;
+
+    private BSZ_BodenseeImport_PageTable(Builder builder) {
+        int size = builder.size;
+        pageidPrefixes = Arrays.copyOf(builder.pageidPrefixes, size);
+        bookletids = Arrays.copyOf(builder.bookletids, size);
+        journalids = Arrays.copyOf(builder.journalids, size);
+        lfnrs = Arrays.copyOf(builder.lfnrs, size);
+        lfnrTexts = builder.lfnrTexts.isEmpty() ? Collections.emptyMap() : new HashMap<>(builder.lfnrTexts);
+        jahre = Arrays.copyOf(builder.jahre, size);
+        labels = Arrays.copyOf(builder.labels, size);
+        folders = Arrays.copyOf(builder.folders, size);
+        issueNumbers = Arrays.copyOf(builder.issueNumbers, size);
+        textOffsets = Arrays.copyOf(builder.textOffsets, 2 * size + 1);
+        text = Arrays.copyOf(builder.text, textOffsets[2 * size]);
+        pageidDictionary = builder.pageidDictionary.toArray();
+        bookletDictionary = builder.bookletDictionary.toArray();
+        journalDictionary = builder.journalDictionary.toArray();
+        jahrDictionary = builder.jahrDictionary.toArray();
+        labelDictionary = builder.labelDictionary.toArray();
+        folderDictionary = builder.folderDictionary.toArray();
+        issueDictionary = builder.issueDictionary.toArray();
+        numericIssues = new boolean[issueDictionary.length];
+        for (int i = 0; i < issueDictionary.length; i++) {
+            numericIssues[i] = StringUtils.isNumeric(issueDictionary[i]);
+        }
+        rows = null;
+    }
+
+    private BSZ_BodenseeImport_PageTable(BSZ_BodenseeImport_PageTable table, int[] rows) {
+        pageidPrefixes = table.pageidPrefixes;
+        bookletids = table.bookletids;
+        journalids = table.journalids;
+        lfnrs = table.lfnrs;
+        lfnrTexts = table.lfnrTexts;
+        jahre = table.jahre;
+        labels = table.labels;
+        folders = table.folders;
+        issueNumbers = table.issueNumbers;
+        text = table.text;
+        textOffsets = table.textOffsets;
+        pageidDictionary = table.pageidDictionary;
+        bookletDictionary = table.bookletDictionary;
+        journalDictionary = table.journalDictionary;
+        jahrDictionary = table.jahrDictionary;
+        labelDictionary = table.labelDictionary;
+        folderDictionary = table.folderDictionary;
+        issueDictionary = table.issueDictionary;
+        numericIssues = table.numericIssues;
+        this.rows = rows;
+    }
+
+    /**
+     * Create a table of the given elements, the rows keep the order of the collection
+     *
+     * @param elements the elements to store
+     * @return the new table
+     */
+    public static BSZ_BodenseeImport_PageTable of(Collection<BSZ_BodenseeImport_Element> elements) {
+        Builder builder = new Builder();
+        for (BSZ_BodenseeImport_Element element : elements) {
+            builder.add(element);
+        }
+        return builder.build();
+    }
+
+    /**
+     * @return an empty table
+     */
+    public static BSZ_BodenseeImport_PageTable empty() {
+        return new Builder().build();
+    }
+
+    /**
+     * @return the number of pages in this table
+     */
+    public int size() {
+        return rows == null ? pageidPrefixes.length : rows.length;
+    }
+
+    public boolean isEmpty() {
+        return size() == 0;
+    }
+
+    /**
+     * @return a new cursor positioned before the first page
+     */
+    public Cursor cursor() {
+        return new Cursor();
+    }
+
+    /**
+     * Group the pages by their year/issue key, each group is ordered by the image name
+     *
+     * @param separateBookletIds true if the booklet id is part of the key
+     * @return the views of all groups in the order of their first page
+     */
+    public Map<String, BSZ_BodenseeImport_PageTable> group(boolean separateBookletIds) {
+        Map<String, List<Integer>> groupRows = new LinkedHashMap<>();
+        String[] sortKeys = new String[pageidPrefixes.length];
+        Cursor cursor = cursor();
+        while (cursor.next()) {
+            int row = cursor.row();
+            groupRows.computeIfAbsent(cursor.getKey(separateBookletIds), k -> new ArrayList<>()).add(row);
+            sortKeys[row] = cursor.getJpg() == null ? "" : cursor.getJpg().toLowerCase();
+        }
+        Map<String, BSZ_BodenseeImport_PageTable> groups = new LinkedHashMap<>();
+        for (Map.Entry<String, List<Integer>> entry : groupRows.entrySet()) {
+            // stable sort as for the elements
+            List<Integer> list = entry.getValue();
+            list.sort((a, b) -> sortKeys[a].compareTo(sortKeys[b]));
+            int[] groupRowArray = new int[list.size()];
+            for (int i = 0; i < groupRowArray.length; i++) {
+                groupRowArray[i] = list.get(i);
+            }
+            groups.put(entry.getKey(), new BSZ_BodenseeImport_PageTable(this, groupRowArray));
+        }
+        return groups;
+    }
+
+    /**
+     * Read-only cursor over the pages of the table. Call {@link #next()} before reading the first page.
+     */
+    public final class Cursor {
+        private int position = -1;
+        private int row = -1;
+
+        private Cursor() {
+        }
+
+        /**
+         * Move to the next page
+         *
+         * @return true if there is a next page, false if the end of the table is reached
+         */
+        public boolean next() {
+            if (position + 1 >= size()) {
+                position = size();
+                return false;
+            }
+            position++;
+            row = rows == null ? position : rows[position];
+            return true;
+        }
+
+        /**
+         * @return the index of the current page in the order of this table
+         */
+        public int getPosition() {
+            return position;
+        }
+
+        private int row() {
+            if (position < 0 || position >= size()) {
+                throw new IllegalStateException("The cursor is not positioned on a page");
+            }
+            return row;
+        }
+
+        public String getPageid() {
+            int current = row();
+            if (pageidPrefixes[current] == NO_VALUE) {
+                return null;
+            }
+            return pageidDictionary[pageidPrefixes[current]] + text(2 * current);
+        }
+
+        public String getBookletid() {
+            return lookup(bookletDictionary, bookletids[row()]);
+        }
+
+        public String getJournalid() {
+            return lookup(journalDictionary, journalids[row()]);
+        }
+
+        public String getLfnr() {
+            int current = row();
+            if (lfnrs[current] == NO_VALUE && lfnrTexts.containsKey(current)) {
+                return lfnrTexts.get(current);
+            }
+            return String.valueOf(lfnrs[current]);
+        }
+
+        public String getJahr() {
+            return lookup(jahrDictionary, jahre[row()]);
+        }
+
+        public String getLabel() {
+            return lookup(labelDictionary, labels[row()]);
+        }
+
+        /**
+         * @return the complete path of the image as it is stored in the dump
+         */
+        public String getJpg() {
+            int current = row();
+            if (folders[current] == NO_VALUE) {
+                return null;
+            }
+            return folderDictionary[folders[current]] + text(2 * current + 1);
+        }
+
+        /**
+         * @return the file name of the image without its folder
+         */
+        public String getFileName() {
+            int current = row();
+            if (folders[current] == NO_VALUE) {
+                return null;
+            }
+            return text(2 * current + 1);
+        }
+
+        public String getIssueNumber() {
+            return lookup(issueDictionary, issueNumbers[row()]);
+        }
+
+        public boolean isNumericIssue() {
+            return numericIssues[issueNumbers[row()]];
+        }
+
+        /**
+         * Get the key of the current page as it is used as record identifier in the mass import GUI
+         *
+         * @param separateBookletIds true if the booklet id shall be part of the key
+         * @return the key in the form jahr[_issue][_bookletid]
+         */
+        public String getKey(boolean separateBookletIds) {
+            String key = isNumericIssue() ? getJahr() + "_" + getIssueNumber() : getJahr();
+            return separateBookletIds ? key + "_" + getBookletid() : key;
+        }
+    }
+
+    private String text(int index) {
+        return new String(text, textOffsets[index], textOffsets[index + 1] - textOffsets[index], StandardCharsets.UTF_8);
+    }
+
+    private static String lookup(String[] dictionary, int id) {
+        return id == NO_VALUE ? null : dictionary[id];
+    }
+
+    /**
+     * Builder to append the rows of a table one by one, e.g. while parsing a dump
+     */
+    public static final class Builder {
+        private int size;
+        private int[] pageidPrefixes = new int[64];
+        private int[] bookletids = new int[64];
+        private int[] journalids = new int[64];
+        private int[] lfnrs = new int[64];
+        private final Map<Integer, String> lfnrTexts = new HashMap<>();
+        private int[] jahre = new int[64];
+        private int[] labels = new int[64];
+        private int[] folders = new int[64];
+        private int[] issueNumbers = new int[64];
+        private byte[] text = new byte[64 * 48];
+        private int[] textOffsets = new int[2 * 64 + 1];
+
+        private final Dictionary pageidDictionary = new Dictionary();
+        private final Dictionary bookletDictionary = new Dictionary();
+        private final Dictionary journalDictionary = new Dictionary();
+        private final Dictionary jahrDictionary = new Dictionary();
+        private final Dictionary labelDictionary = new Dictionary();
+        private final Dictionary folderDictionary = new Dictionary();
+        private final Dictionary issueDictionary = new Dictionary();
+
+        /**
+         * Append an element as new row
+         *
+         * @param element the element to append
+         * @return this builder
+         */
+        public Builder add(BSZ_BodenseeImport_Element element) {
+            if (size == pageidPrefixes.length) {
+                grow();
+            }
+            // the page ids of a journal differ only in their end, e.g. wbjb-j1988-h001-t-020
+            String pageid = element.getPageid();
+            if (pageid == null) {
+                pageidPrefixes[size] = NO_VALUE;
+                appendText(2 * size, "");
+            } else {
+                int separator = Math.max(pageid.lastIndexOf('-'), pageid.lastIndexOf('_')) + 1;
+                pageidPrefixes[size] = pageidDictionary.id(pageid.substring(0, separator));
+                appendText(2 * size, pageid.substring(separator));
+            }
+            bookletids[size] = bookletDictionary.id(element.getBookletid());
+            journalids[size] = journalDictionary.id(element.getJournalid());
+            lfnrs[size] = parseLfnr(element.getLfnr());
+            jahre[size] = jahrDictionary.id(element.getJahr());
+            labels[size] = labelDictionary.id(element.getLabel());
+            String jpg = element.getJpg();
+            if (jpg == null) {
+                folders[size] = NO_VALUE;
+                appendText(2 * size + 1, "");
+            } else {
+                int separator = jpg.lastIndexOf('/') + 1;
+                folders[size] = folderDictionary.id(jpg.substring(0, separator));
+                appendText(2 * size + 1, jpg.substring(separator));
+            }
+            // the issue number is never null, so the numeric flag can be looked up without a check
+            issueNumbers[size] = issueDictionary.id(element.getIssueNumber());
+            size++;
+            return this;
+        }
+
+        private void appendText(int index, String value) {
+            byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+            int start = textOffsets[index];
+            if (start + bytes.length > text.length) {
+                text = Arrays.copyOf(text, Math.max(text.length * 2, start + bytes.length));
+            }
+            System.arraycopy(bytes, 0, text, start, bytes.length);
+            textOffsets[index + 1] = start + bytes.length;
+        }
+
+        /**
+         * Only numbers that are written back exactly as they were read are kept as int, e.g. not 007 or non-ASCII digits
+         */
+        private int parseLfnr(String lfnr) {
+            if (isCanonicalNumber(lfnr)) {
+                return Integer.parseInt(lfnr);
+            }
+            lfnrTexts.put(size, lfnr);
+            return NO_VALUE;
+        }
+
+        private static boolean isCanonicalNumber(String value) {
+            if (value == null || value.isEmpty() || value.length() >= 10 || (value.length() > 1 && value.charAt(0) == '0')) {
+                return false;
+            }
+            for (int i = 0; i < value.length(); i++) {
+                if (value.charAt(i) < '0' || value.charAt(i) > '9') {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        private void grow() {
+            int capacity = pageidPrefixes.length * 2;
+            pageidPrefixes = Arrays.copyOf(pageidPrefixes, capacity);
+            bookletids = Arrays.copyOf(bookletids, capacity);
+            journalids = Arrays.copyOf(journalids, capacity);
+            lfnrs = Arrays.copyOf(lfnrs, capacity);
+            jahre = Arrays.copyOf(jahre, capacity);
+            labels = Arrays.copyOf(labels, capacity);
+            folders = Arrays.copyOf(folders, capacity);
+            issueNumbers = Arrays.copyOf(issueNumbers, capacity);
+            textOffsets = Arrays.copyOf(textOffsets, 2 * capacity + 1);
+        }
+
+        /**
+         * @return the table with all rows added so far, the arrays are trimmed to the number of rows
+         */
+        public BSZ_BodenseeImport_PageTable build() {
+            return new BSZ_BodenseeImport_PageTable(this);
+        }
+    }
+
+    /**
+     * Dictionary of the distinct values of a column, each value is stored only once per table
+     */
+    private static final class Dictionary {
+        private final Map<String, Integer> ids = new HashMap<>();
+        private final List<String> values = new ArrayList<>();
+
+        private int id(String value) {
+            if (value == null) {
+                return NO_VALUE;
+            }
+            Integer id = ids.get(value);
+            if (id == null) {
+                id = values.size();
+                values.add(value);
+                ids.put(value, id);
+            }
+            return id;
+        }
+
+        private String[] toArray() {
+            return values.toArray(new String[values.size()]);
+        }
+    }
+}
@@ -0,0 +1,218 @@
+package de.intranda.goobi.plugins.bsz;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Parser that reads an uncompressed sql dump in parallel. The dump is split into line aligned parts that start with an INSERT statement or with a
+ * data line of a COPY block, the parts are parsed on a {@link ForkJoinPool} and the results are returned in the order of the parts in the file. As
+ * each part is read in file order and the results are merged in file order, the merged result is the same as the one of a sequential parse.
+ */
+public class BSZ_BodenseeImport_ParallelParser {
+
+    // parts smaller than this are not worth to be parsed on their own
+    private static final long MIN_PART_SIZE = 4L * 1024 * 1024;
+    // number of parts per thread, to compensate for parts with different content
+    private static final int PARTS_PER_THREAD = 4;
+
+    private final File sqlFile;
+    private final int parallelism;
+
+    /**
+     * Handler to collect the elements of one part of the dump into a result
+     *
+     * @param <R> the type of the result of a part
+     */
+    public interface PartHandler<R> {
+        /**
+         * @return a new empty result for a part
+         */
+        R createResult();
+
+        /**
+         * Add an element to the result of a part
+         *
+         * @param result the result of the current part
+         * @param reader the reader of the part, to get the offsets of the current element
+         * @param element the element to add
+         */
+        void add(R result, BSZ_BodenseeImport_MappedReader reader, BSZ_BodenseeImport_Element element);
+    }
+
+    /**
+     * Line aligned part of the dump
+     */
+    private static class Part {
+        private long start;
+        private long end;
+        private long headerOffset = -1;
+        private String header;
+        private boolean standardConformingStrings;
+    }
+
+    public BSZ_BodenseeImport_ParallelParser(File sqlFile, int parallelism) {
+        this.sqlFile = sqlFile;
+        this.parallelism = Math.max(1, parallelism);
+    }
+
+    /**
+     * Parse the dump in parallel
+     *
+     * @param handler the handler to collect the elements of each part
+     * @return the results of all parts in the order of the file
+     * @throws IOException
+     */
+    public <R> List<R> parse(PartHandler<R> handler) throws IOException {
+        List<Part> parts = split(Math.max(MIN_PART_SIZE, sqlFile.length() / (parallelism * PARTS_PER_THREAD)));
+        Object[] results = new Object[parts.size()];
+        if (parts.size() == 1 || parallelism == 1) {
+            for (int i = 0; i < parts.size(); i++) {
+                results[i] = parsePart(parts.get(i), handler);
+            }
+        } else {
+            ForkJoinPool pool = new ForkJoinPool(parallelism);
+            try {
+                pool.invoke(new PartTask<>(parts, results, handler, 0, parts.size()));
+            } catch (UncheckedIOException e) {
+                throw e.getCause();
+            } finally {
+                pool.shutdown();
+            }
+        }
+        List<R> answer = new ArrayList<>(results.length);
+        for (Object result : results) {
+            @SuppressWarnings("unchecked")
+            R r = (R) result;
+            answer.add(r);
+        }
+        return answer;
+    }
+
+    private <R> R parsePart(Part part, PartHandler<R> handler) throws IOException {
+        R result = handler.createResult();
+        BSZ_BodenseeImport_MappedReader reader = new BSZ_BodenseeImport_MappedReader(sqlFile);
+        reader.readPart(part.start, part.end, part.headerOffset, part.header, part.standardConformingStrings,
+                element -> handler.add(result, reader, element));
+        return result;
+    }
+
+    /**
+     * Task to parse a range of parts, it is split until a single part is left
+     */
+    private class PartTask<R> extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+        private final transient List<Part> parts;
+        private final transient Object[] results;
+        private final transient PartHandler<R> handler;
+        private final int from;
+        private final int to;
+
+        private PartTask(List<Part> parts, Object[] results, PartHandler<R> handler, int from, int to) {
+            this.parts = parts;
+            this.results = results;
+            this.handler = handler;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected void compute() {
+            if (to - from == 1) {
+                try {
+                    results[from] = parsePart(parts.get(from), handler);
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            } else {
+                int middle = (from + to) >>> 1;
+                invokeAll(new PartTask<>(parts, results, handler, from, middle), new PartTask<>(parts, results, handler, middle, to));
+            }
+        }
+    }
+
+    /**
+     * Split the dump into parts of about the given size. Only the line breaks are searched in the bytes of the file, the lines are not decoded
+     * except for COPY statements and settings.
+     */
+    private List<Part> split(long targetSize) throws IOException {
+        List<Part> parts = new ArrayList<>();
+        Part first = new Part();
+        first.standardConformingStrings = true;
+        parts.add(first);
+
+        try (FileChannel channel = FileChannel.open(sqlFile.toPath(), StandardOpenOption.READ)) {
+            long size = channel.size();
+            BSZ_BodenseeImport_MappedReader.forEachLine(channel, 0, size, new BSZ_BodenseeImport_MappedReader.LineHandler() {
+                private Part current = first;
+                private boolean inCopy;
+                private long copyHeaderOffset;
+                private String copyHeader;
+                // setting of standard_conforming_strings at the current line
+                private boolean standardConformingStrings = true;
+
+                @Override
+                public void handle(ByteBuffer buffer, long bufferPosition, int start, int end) {
+                    if (end > start && buffer.get(end - 1) == '\r') {
+                        end--;
+                    }
+                    long lineStart = bufferPosition + start;
+                    boolean copyEnd = inCopy && end - start == BSZ_BodenseeImport_MappedReader.COPY_END.length
+                            && BSZ_BodenseeImport_MappedReader.startsWith(buffer, start, end, BSZ_BodenseeImport_MappedReader.COPY_END);
+
+                    // a new part may start with an INSERT statement or with a data line of a COPY block
+                    boolean insert = !inCopy && BSZ_BodenseeImport_MappedReader.startsWith(buffer, start, end,
+                            BSZ_BodenseeImport_MappedReader.INSERT_PREFIX);
+                    if ((insert || inCopy && !copyEnd) && lineStart - current.start >= targetSize) {
+                        current.end = lineStart;
+                        Part next = new Part();
+                        next.start = lineStart;
+                        next.standardConformingStrings = standardConformingStrings;
+                        if (inCopy) {
+                            next.headerOffset = copyHeaderOffset;
+                            next.header = copyHeader;
+                        }
+                        parts.add(next);
+                        current = next;
+                    }
+
+                    if (copyEnd) {
+                        inCopy = false;
+                    } else if (!inCopy
+                            && BSZ_BodenseeImport_MappedReader.startsWith(buffer, start, end, BSZ_BodenseeImport_MappedReader.COPY_PREFIX)) {
+                        String line = decode(buffer, start, end).trim();
+                        if (line.endsWith("FROM stdin;")) {
+                            inCopy = true;
+                            copyHeaderOffset = lineStart;
+                            copyHeader = line;
+                        }
+                    } else if (!inCopy
+                            && BSZ_BodenseeImport_MappedReader.startsWith(buffer, start, end, BSZ_BodenseeImport_MappedReader.SET_PREFIX)) {
+                        String line = decode(buffer, start, end);
+                        if (line.startsWith("SET standard_conforming_strings")) {
+                            standardConformingStrings = !line.contains("off");
+                        }
+                    }
+                }
+            });
+            parts.get(parts.size() - 1).end = size;
+        }
+        return parts;
+    }
+
+    private static String decode(ByteBuffer buffer, int start, int end) {
+        byte[] bytes = new byte[end - start];
+        for (int i = 0; i < bytes.length; i++) {
+            bytes[i] = buffer.get(start + i);
+        }
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+}
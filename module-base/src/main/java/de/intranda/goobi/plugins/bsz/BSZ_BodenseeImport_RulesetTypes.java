@@ -0,0 +1,92 @@
+package de.intranda.goobi.plugins.bsz;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import lombok.Getter;
+import ugh.dl.DocStructType;
+import ugh.dl.MetadataType;
+import ugh.dl.Prefs;
+import ugh.exceptions.PreferencesException;
+
+/**
+ * All metadata types and structure types of the ruleset that are used by the import. They are looked up once per run instead of once per metadata,
+ * missing types are reported before the first volume is imported. The types that are only used for issues of their own are only required if issues
+ * are created, otherwise they are null if the ruleset does not contain them.
+ */
+@Getter
+public class BSZ_BodenseeImport_RulesetTypes {
+
+    private final MetadataType titleDocMain;
+    private final MetadataType currentNo;
+    private final MetadataType currentNoSorting;
+    private final MetadataType viewerSubTheme;
+    private final MetadataType singleDigCollection;
+    private final MetadataType publicationYear;
+    private final MetadataType dateOfPublication;
+    private final MetadataType catalogIdDigital;
+    private final MetadataType catalogIdSource;
+    private final MetadataType pathimagefiles;
+    private final MetadataType physPageNumber;
+    private final MetadataType logicalPageNumber;
+
+    private final DocStructType boundBook;
+    private final DocStructType periodicalIssue;
+    private final DocStructType page;
+
+    private BSZ_BodenseeImport_RulesetTypes(Prefs prefs, boolean createIssues, List<String> missing) {
+        // the issues are only needed as structural elements of their own if issues are created
+        List<String> issueMissing = createIssues ? missing : new ArrayList<>();
+        titleDocMain = metadataType(prefs, "TitleDocMain", missing);
+        currentNo = metadataType(prefs, "CurrentNo", missing);
+        currentNoSorting = metadataType(prefs, "CurrentNoSorting", missing);
+        viewerSubTheme = metadataType(prefs, "ViewerSubTheme", missing);
+        singleDigCollection = metadataType(prefs, "singleDigCollection", missing);
+        publicationYear = metadataType(prefs, "PublicationYear", missing);
+        dateOfPublication = metadataType(prefs, "DateOfPublication", issueMissing);
+        catalogIdDigital = metadataType(prefs, "CatalogIDDigital", missing);
+        catalogIdSource = metadataType(prefs, "CatalogIDSource", missing);
+        pathimagefiles = metadataType(prefs, "pathimagefiles", missing);
+        physPageNumber = metadataType(prefs, "physPageNumber", missing);
+        logicalPageNumber = metadataType(prefs, "logicalPageNumber", missing);
+        boundBook = docStructType(prefs, "BoundBook", missing);
+        periodicalIssue = docStructType(prefs, "PeriodicalIssue", issueMissing);
+        page = docStructType(prefs, "page", missing);
+    }
+
+    /**
+     * Look up all types in the given ruleset
+     *
+     * @param prefs the ruleset to use
+     * @param createIssues true if each issue becomes a structural element of its own, then the issue types are required as well
+     * @return the types of the ruleset
+     * @throws PreferencesException if any of the required types is missing in the ruleset, the message lists all missing types
+     */
+    public static BSZ_BodenseeImport_RulesetTypes resolve(Prefs prefs, boolean createIssues) throws PreferencesException {
+        if (prefs == null) {
+            throw new PreferencesException("No ruleset is available for the import");
+        }
+        List<String> missing = new ArrayList<>();
+        BSZ_BodenseeImport_RulesetTypes types = new BSZ_BodenseeImport_RulesetTypes(prefs, createIssues, missing);
+        if (!missing.isEmpty()) {
+            throw new PreferencesException("The ruleset does not contain the types " + String.join(", ", missing));
+        }
+        return types;
+    }
+
+    private static MetadataType metadataType(Prefs prefs, String name, List<String> missing) {
+        MetadataType type = prefs.getMetadataTypeByName(name);
+        if (type == null) {
+            missing.add(name);
+        }
+        return type;
+    }
+
+    private static DocStructType docStructType(Prefs prefs, String name, List<String> missing) {
+        DocStructType type = prefs.getDocStrctTypeByName(name);
+        if (type == null) {
+            missing.add(name);
+        }
+        return type;
+    }
+}
@@ -0,0 +1,309 @@
+package de.intranda.goobi.plugins.bsz;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import lombok.Getter;
+import lombok.extern.log4j.Log4j;
+
+/**
+ * Persistent index of a sql dump that is stored as binary file next to the dump (e.g. wbjb.sql.idx). It contains the sorted year/issue keys and the
+ * byte ranges of their rows inside of the dump (INSERT statements as well as COPY blocks), so that listing the years and reading the rows of one
+ * year does not need to parse the whole dump. The content hash of each key is stored too, see {@link BSZ_BodenseeImport_GroupHashes}. The index
+ * file is bound to the size and the modification date of the dump and is built again as soon as the dump was changed.
+ */
+@Log4j
+public class BSZ_BodenseeImport_SidecarIndex {
+
+    public static final String FILE_EXTENSION = ".idx";
+
+    private static final int MAGIC = 0x42535A49;
+    private static final int VERSION = 4;
+
+    @Getter
+    private final File sqlFile;
+    private long dumpLength;
+    private long dumpModified;
+    private boolean separateBookletIds;
+    // for each key the ranges of lines containing its rows, each as offset of the statement header (or -1 if the range starts with the statement),
+    // start and end offset of the range and the setting of standard_conforming_strings that is valid for the range (1 for on, 0 for off)
+    private final Map<String, long[]> ranges = new TreeMap<>();
+    // content hash of the rows of each key
+    @Getter
+    private final Map<String, String> hashes = new TreeMap<>();
+
+    private BSZ_BodenseeImport_SidecarIndex(File sqlFile, boolean separateBookletIds) {
+        this.sqlFile = sqlFile;
+        this.separateBookletIds = separateBookletIds;
+    }
+
+    /**
+     * Get the index for the given sql file. If a valid index file exists it is read, otherwise the dump is parsed and the index file is written.
+     *
+     * @param sqlFile the sql dump
+     * @param separateBookletIds true if the booklet id is part of the key
+     * @param parallelism number of threads to parse the dump if the index file must be created
+     * @return the index for this dump
+     * @throws IOException
+     */
+    public static BSZ_BodenseeImport_SidecarIndex load(File sqlFile, boolean separateBookletIds, int parallelism) throws IOException {
+        File indexFile = getIndexFile(sqlFile);
+        if (indexFile.exists()) {
+            try {
+                BSZ_BodenseeImport_SidecarIndex index = read(sqlFile, indexFile);
+                if (index != null && index.separateBookletIds == separateBookletIds && !index.isStale()) {
+                    return index;
+                }
+            } catch (IOException e) {
+                log.warn("Index file " + indexFile.getAbsolutePath() + " cannot be read and gets created again", e);
+            }
+        }
+        BSZ_BodenseeImport_SidecarIndex index = build(sqlFile, separateBookletIds, parallelism);
+        try {
+            index.write(indexFile);
+        } catch (IOException e) {
+            log.warn("Index file " + indexFile.getAbsolutePath() + " cannot be written, the index is kept in memory only", e);
+        }
+        return index;
+    }
+
+    public static File getIndexFile(File sqlFile) {
+        return new File(sqlFile.getParentFile(), sqlFile.getName() + FILE_EXTENSION);
+    }
+
+    private static BSZ_BodenseeImport_SidecarIndex build(File sqlFile, boolean separateBookletIds, int parallelism) throws IOException {
+        BSZ_BodenseeImport_SidecarIndex index = new BSZ_BodenseeImport_SidecarIndex(sqlFile, separateBookletIds);
+        index.dumpLength = sqlFile.length();
+        index.dumpModified = sqlFile.lastModified();
+
+        // collect the ranges of each part of the dump and append them in the order of the parts
+        BSZ_BodenseeImport_ParallelParser parser = new BSZ_BodenseeImport_ParallelParser(sqlFile, parallelism);
+        List<Part> results = parser.parse(new BSZ_BodenseeImport_ParallelParser.PartHandler<Part>() {
+            @Override
+            public Part createResult() {
+                return new Part();
+            }
+
+            @Override
+            public void add(Part result, BSZ_BodenseeImport_MappedReader reader, BSZ_BodenseeImport_Element element) {
+                String key = BSZ_BodenseeImport_DumpIndex.getKey(element, separateBookletIds);
+                addRange(result.ranges.computeIfAbsent(key, k -> new ArrayList<>()), reader);
+                result.hashes.add(key, element);
+            }
+        });
+
+        Map<String, List<Long>> offsets = new TreeMap<>();
+        BSZ_BodenseeImport_GroupHashes groupHashes = new BSZ_BodenseeImport_GroupHashes();
+        for (Part result : results) {
+            for (Map.Entry<String, List<Long>> entry : result.ranges.entrySet()) {
+                offsets.computeIfAbsent(entry.getKey(), k -> new ArrayList<>()).addAll(entry.getValue());
+            }
+            groupHashes.addAll(result.hashes);
+        }
+        index.hashes.putAll(groupHashes.getHashes());
+        for (Map.Entry<String, List<Long>> entry : offsets.entrySet()) {
+            List<Long> list = entry.getValue();
+            long[] values = new long[list.size()];
+            for (int i = 0; i < values.length; i++) {
+                values[i] = list.get(i);
+            }
+            index.ranges.put(entry.getKey(), values);
+        }
+        return index;
+    }
+
+    /**
+     * Ranges and group hashes of one part of the dump
+     */
+    private static class Part {
+        private final Map<String, List<Long>> ranges = new HashMap<>();
+        private final BSZ_BodenseeImport_GroupHashes hashes = new BSZ_BodenseeImport_GroupHashes();
+    }
+
+    /**
+     * Add the range of the current row of the reader to the list of ranges. Rows in the same or in directly following lines share one range, as
+     * long as their statement header is part of the range too and the setting of standard_conforming_strings is the same.
+     */
+    private static void addRange(List<Long> list, BSZ_BodenseeImport_MappedReader reader) {
+        int size = list.size();
+        long rowStart = reader.getRowStart();
+        long statementStart = reader.getStatementStart();
+        long standardConformingStrings = reader.isStandardConformingStrings() ? 1L : 0L;
+        if (size > 0 && rowStart <= list.get(size - 2) + 2 && (list.get(size - 4) == statementStart || statementStart >= list.get(size - 3))
+                && list.get(size - 1) == standardConformingStrings) {
+            list.set(size - 2, Math.max(list.get(size - 2), reader.getRowEnd()));
+        } else {
+            list.add(statementStart < rowStart ? statementStart : -1L);
+            list.add(rowStart);
+            list.add(reader.getRowEnd());
+            list.add(standardConformingStrings);
+        }
+    }
+
+    private static BSZ_BodenseeImport_SidecarIndex read(File sqlFile, File indexFile) throws IOException {
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(indexFile.toPath())))) {
+            if (in.readInt() != MAGIC || in.readInt() != VERSION) {
+                return null;
+            }
+            BSZ_BodenseeImport_SidecarIndex index = new BSZ_BodenseeImport_SidecarIndex(sqlFile, in.readBoolean());
+            index.dumpLength = in.readLong();
+            index.dumpModified = in.readLong();
+            int keyCount = in.readInt();
+            for (int i = 0; i < keyCount; i++) {
+                String key = in.readUTF();
+                index.hashes.put(key, in.readUTF());
+                long[] values = new long[in.readInt()];
+                for (int j = 0; j < values.length; j++) {
+                    values[j] = in.readLong();
+                }
+                index.ranges.put(key, values);
+            }
+            return index;
+        }
+    }
+
+    private void write(File indexFile) throws IOException {
+        // write into a temporary file of this writer first to never leave a broken index behind, even if the index is built by several imports
+        Path tempFile = Files.createTempFile(indexFile.getParentFile().toPath(), indexFile.getName(), ".tmp");
+        try {
+            try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(tempFile)))) {
+                out.writeInt(MAGIC);
+                out.writeInt(VERSION);
+                out.writeBoolean(separateBookletIds);
+                out.writeLong(dumpLength);
+                out.writeLong(dumpModified);
+                out.writeInt(ranges.size());
+                for (Map.Entry<String, long[]> entry : ranges.entrySet()) {
+                    out.writeUTF(entry.getKey());
+                    out.writeUTF(hashes.get(entry.getKey()));
+                    out.writeInt(entry.getValue().length);
+                    for (long value : entry.getValue()) {
+                        out.writeLong(value);
+                    }
+                }
+            }
+            Files.move(tempFile, indexFile.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            Files.deleteIfExists(tempFile);
+        }
+    }
+
+    /**
+     * Check if the sql file was changed since the index was built
+     *
+     * @return true if the index does not reflect the current file anymore
+     */
+    public boolean isStale() {
+        return sqlFile.length() != dumpLength || sqlFile.lastModified() != dumpModified;
+    }
+
+    /**
+     * Get an ordered list of all keys of this index
+     *
+     * @return sorted list of all year/issue keys
+     */
+    public List<String> getKeys() {
+        return new ArrayList<>(ranges.keySet());
+    }
+
+    /**
+     * Read the rows of the given key from the dump, only the lines that are listed in the index are read
+     *
+     * @param key the year/issue key to search for
+     * @return list of elements ordered by the image name, empty if the key is unknown
+     * @throws IOException
+     */
+    public List<BSZ_BodenseeImport_Element> getElements(String key) throws IOException {
+        List<BSZ_BodenseeImport_Element> elements = new ArrayList<>();
+        long[] values = ranges.get(key);
+        if (values == null) {
+            return elements;
+        }
+        // rows of the statement header line must not be taken into account, they are part of another range
+        AtomicBoolean skipRows = new AtomicBoolean();
+        try (FileChannel channel = FileChannel.open(sqlFile.toPath(), StandardOpenOption.READ)) {
+            for (int i = 0; i < values.length; i += 4) {
+                BSZ_BodenseeImport_SqlParser parser = new BSZ_BodenseeImport_SqlParser(element -> {
+                    // lines may contain rows of other keys too
+                    if (!skipRows.get() && BSZ_BodenseeImport_DumpIndex.getKey(element, separateBookletIds).equals(key)) {
+                        elements.add(element);
+                    }
+                });
+                parser.setStandardConformingStrings(values[i + 3] != 0);
+                if (values[i] >= 0) {
+                    // the rows belong to a statement that started in an earlier line
+                    skipRows.set(true);
+                    parser.parseLine(readLine(channel, values[i]));
+                    skipRows.set(false);
+                }
+                String text = new String(readBytes(channel, values[i + 1], values[i + 2]), StandardCharsets.UTF_8);
+                for (String line : text.split("\n", -1)) {
+                    parser.parseLine(stripCarriageReturn(line));
+                }
+                if (parser.isInStatement() && !parser.isInCopy()) {
+                    parser.parseLine(";");
+                }
+            }
+        }
+        Collections.sort(elements);
+        return elements;
+    }
+
+    private byte[] readBytes(FileChannel channel, long start, long end) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate((int) (end - start));
+        long position = start;
+        while (buffer.hasRemaining()) {
+            int count = channel.read(buffer, position);
+            if (count < 0) {
+                throw new IOException("Unexpected end of " + sqlFile.getAbsolutePath() + ", the index is outdated");
+            }
+            position += count;
+        }
+        return buffer.array();
+    }
+
+    private String readLine(FileChannel channel, long start) throws IOException {
+        ByteArrayOutputStream line = new ByteArrayOutputStream();
+        ByteBuffer buffer = ByteBuffer.allocate(4096);
+        long position = start;
+        while (true) {
+            buffer.clear();
+            int count = channel.read(buffer, position);
+            if (count < 0) {
+                break;
+            }
+            for (int i = 0; i < count; i++) {
+                if (buffer.get(i) == '\n') {
+                    line.write(buffer.array(), 0, i);
+                    return stripCarriageReturn(line.toString(StandardCharsets.UTF_8.name()));
+                }
+            }
+            line.write(buffer.array(), 0, count);
+            position += count;
+        }
+        return stripCarriageReturn(line.toString(StandardCharsets.UTF_8.name()));
+    }
+
+    private static String stripCarriageReturn(String line) {
+        return line.endsWith("\r") ? line.substring(0, line.length() - 1) : line;
+    }
+}
@@ -0,0 +1,487 @@
+package de.intranda.goobi.plugins.bsz;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Consumer;
+
+/**
+ * Single pass tokenizer for the INSERT statements of a pg_dump file. The parser is fed line by line and keeps its state between the lines, so that
+ * statements with several rows (VALUES (...), (...);) and string literals spanning more than one line are read correctly. String literals may
+ * contain commas, escaped quotes ('') and, for E'...' literals or if standard_conforming_strings is off, backslash escapes. NULL values are passed
+ * as null.
+ * 
+ * Besides INSERT statements the default output of pg_dump is read as well: the tab separated rows of a COPY ... FROM stdin; block up to the
+ * terminating \. line, including \N for NULL and the backslash escapes of the COPY text format. The columns of a COPY block are assigned by their
+ * names.
+ */
+public class BSZ_BodenseeImport_SqlParser {
+
+    private static final String INSERT_PREFIX = "INSERT INTO";
+    private static final String VALUES_KEYWORD = "VALUES";
+    private static final String COPY_PREFIX = "COPY ";
+    private static final String COPY_FROM_STDIN = "FROM stdin;";
+    private static final String COPY_END = "\\.";
+    private static final String COPY_NULL = "\\N";
+    private static final String[] COLUMN_NAMES = { "pageid", "bookletid", "journalid", "lfnr", "jahr", "label", "jpg" };
+    private static final int FIELD_COUNT = 7;
+
+    private enum State {
+        // outside of any insert statement
+        OUTSIDE,
+        // within the statement header, before the VALUES keyword
+        HEADER,
+        // between two rows of the statement
+        BETWEEN_ROWS,
+        // within a row, before the next field starts
+        BEFORE_FIELD,
+        // within a bare value like a number or NULL
+        BARE_FIELD,
+        // within a quoted string literal
+        STRING_FIELD,
+        // after a field, before the next comma or the end of the row
+        AFTER_FIELD,
+        // within the data lines of a COPY block
+        COPY_DATA
+    }
+
+    private final Consumer<BSZ_BodenseeImport_Element> consumer;
+    private final String[] fields = new String[FIELD_COUNT];
+    private final StringBuilder buffer = new StringBuilder();
+    private State state = State.OUTSIDE;
+    private int fieldIndex;
+    private boolean backslashEscapes;
+    private boolean standardConformingStrings = true;
+    private boolean buffered;
+    private boolean headerInQuote;
+    // position of each column of a COPY block in the element fields, -1 for unknown columns
+    private int[] columnMapping;
+
+    /**
+     * @param consumer the consumer that gets all elements in the order of the dump
+     */
+    public BSZ_BodenseeImport_SqlParser(Consumer<BSZ_BodenseeImport_Element> consumer) {
+        this.consumer = consumer;
+    }
+
+    /**
+     * Convenience method to parse a single complete INSERT statement
+     *
+     * @param statement the statement to parse
+     * @return list of all rows of this statement as elements
+     */
+    public static List<BSZ_BodenseeImport_Element> parseStatement(CharSequence statement) {
+        List<BSZ_BodenseeImport_Element> elements = new ArrayList<>();
+        new BSZ_BodenseeImport_SqlParser(elements::add).parseLine(statement);
+        return elements;
+    }
+
+    /**
+     * Check if the parser is currently within an INSERT statement, e.g. because a statement with several rows continues in the next line
+     *
+     * @return true if the parser is in the middle of a statement
+     */
+    public boolean isInStatement() {
+        return state != State.OUTSIDE;
+    }
+
+    /**
+     * Check if the parser is currently within a row, e.g. because a string literal continues in the next line
+     *
+     * @return true if the parser is in the middle of a row
+     */
+    public boolean isInRow() {
+        return state == State.BEFORE_FIELD || state == State.BARE_FIELD || state == State.STRING_FIELD || state == State.AFTER_FIELD;
+    }
+
+    /**
+     * Check if the parser is currently within the data lines of a COPY block
+     *
+     * @return true if the next line is expected to be a tab separated row or the end of the block
+     */
+    public boolean isInCopy() {
+        return state == State.COPY_DATA;
+    }
+
+    /**
+     * @return true if backslashes in string literals are normal characters, as defined by the setting standard_conforming_strings of the dump
+     */
+    public boolean isStandardConformingStrings() {
+        return standardConformingStrings;
+    }
+
+    /**
+     * Set the interpretation of backslashes in string literals, necessary if only parts of a dump are parsed that do not contain the settings
+     *
+     * @param standardConformingStrings false if backslashes in string literals are escape characters
+     */
+    public void setStandardConformingStrings(boolean standardConformingStrings) {
+        this.standardConformingStrings = standardConformingStrings;
+    }
+
+    /**
+     * Parse the next line of the dump. The line is expected without its line terminator.
+     *
+     * @param line the line to parse
+     */
+    public void parseLine(CharSequence line) {
+        int length = line.length();
+        int pos = 0;
+        if (state == State.COPY_DATA) {
+            parseCopyLine(line);
+            return;
+        }
+        if (state == State.OUTSIDE) {
+            if (startsWith(line, 0, COPY_PREFIX)) {
+                parseCopyHeader(line);
+                return;
+            }
+            if (!startsWith(line, 0, INSERT_PREFIX)) {
+                checkSettings(line);
+                return;
+            }
+            columnMapping = null;
+            state = State.HEADER;
+            headerInQuote = false;
+            pos = INSERT_PREFIX.length();
+        } else if (state == State.STRING_FIELD) {
+            // a string literal spans over the line break
+            buffer.append('\n');
+        }
+
+        int fieldStart = pos;
+        while (pos < length) {
+            char c = line.charAt(pos);
+            switch (state) {
+                case HEADER:
+                    // table and column names may be quoted identifiers
+                    if (c == '"') {
+                        headerInQuote = !headerInQuote;
+                    } else if (!headerInQuote && (c == 'V' || c == 'v') && isKeyword(line, pos, VALUES_KEYWORD)) {
+                        pos += VALUES_KEYWORD.length() - 1;
+                        state = State.BETWEEN_ROWS;
+                    }
+                    break;
+                case BETWEEN_ROWS:
+                    if (c == '(') {
+                        fieldIndex = 0;
+                        state = State.BEFORE_FIELD;
+                    } else if (c == ';') {
+                        state = State.OUTSIDE;
+                        return;
+                    }
+                    break;
+                case BEFORE_FIELD:
+                    if (c == '\'') {
+                        backslashEscapes = !standardConformingStrings;
+                        startField();
+                        fieldStart = pos + 1;
+                        state = State.STRING_FIELD;
+                    } else if ((c == 'E' || c == 'e') && pos + 1 < length && line.charAt(pos + 1) == '\'') {
+                        backslashEscapes = true;
+                        pos++;
+                        startField();
+                        fieldStart = pos + 1;
+                        state = State.STRING_FIELD;
+                    } else if (c == ')') {
+                        endRow();
+                        state = State.BETWEEN_ROWS;
+                    } else if (!Character.isWhitespace(c)) {
+                        startField();
+                        fieldStart = pos;
+                        state = State.BARE_FIELD;
+                    }
+                    break;
+                case BARE_FIELD:
+                    if (c == ',' || c == ')' || Character.isWhitespace(c)) {
+                        String value = takeField(line, fieldStart, pos);
+                        setField("NULL".equalsIgnoreCase(value) ? null : value);
+                        state = State.AFTER_FIELD;
+                        continue;
+                    }
+                    break;
+                case STRING_FIELD:
+                    if (c == '\'') {
+                        if (pos + 1 < length && line.charAt(pos + 1) == '\'') {
+                            // escaped quote, keep one of them
+                            moveToBuffer(line, fieldStart, pos + 1);
+                            pos++;
+                            fieldStart = pos + 1;
+                        } else {
+                            setField(takeField(line, fieldStart, pos));
+                            state = State.AFTER_FIELD;
+                        }
+                    } else if (c == '\\' && backslashEscapes && pos + 1 < length) {
+                        moveToBuffer(line, fieldStart, pos);
+                        pos++;
+                        buffer.append(unescape(line.charAt(pos)));
+                        fieldStart = pos + 1;
+                    }
+                    break;
+                case AFTER_FIELD:
+                    if (c == ',') {
+                        state = State.BEFORE_FIELD;
+                    } else if (c == ')') {
+                        endRow();
+                        state = State.BETWEEN_ROWS;
+                    }
+                    break;
+                default:
+                    break;
+            }
+            pos++;
+        }
+
+        // the line ends within a field, keep what was read so far
+        if (state == State.STRING_FIELD || state == State.BARE_FIELD) {
+            moveToBuffer(line, fieldStart, length);
+            if (state == State.BARE_FIELD) {
+                String value = takeField(line, length, length);
+                setField("NULL".equalsIgnoreCase(value) ? null : value);
+                state = State.AFTER_FIELD;
+            }
+        }
+    }
+
+    private void startField() {
+        buffer.setLength(0);
+        buffered = false;
+    }
+
+    /**
+     * Copy the given part of the line into the buffer, necessary only if a field contains escapes or spans several lines
+     */
+    private void moveToBuffer(CharSequence line, int start, int end) {
+        buffer.append(line, start, end);
+        buffered = true;
+    }
+
+    /**
+     * Get the value of the current field, allocating only one new String for it
+     */
+    private String takeField(CharSequence line, int start, int end) {
+        if (!buffered) {
+            return line.subSequence(start, end).toString();
+        }
+        buffer.append(line, start, end);
+        return buffer.toString();
+    }
+
+    private void setField(String value) {
+        int target = fieldIndex;
+        if (columnMapping != null) {
+            target = fieldIndex < columnMapping.length ? columnMapping[fieldIndex] : -1;
+        }
+        if (target >= 0 && target < FIELD_COUNT) {
+            fields[target] = value;
+        }
+        fieldIndex++;
+    }
+
+    /**
+     * Start a COPY block if the line is a COPY ... FROM stdin; statement and assign its columns to the element fields
+     */
+    private void parseCopyHeader(CharSequence line) {
+        String header = line.toString().trim();
+        if (!header.endsWith(COPY_FROM_STDIN)) {
+            return;
+        }
+        columnMapping = null;
+        int open = header.indexOf('(');
+        int close = header.indexOf(')', open + 1);
+        if (open > 0 && close > open) {
+            String[] columns = header.substring(open + 1, close).split(",");
+            int[] mapping = new int[columns.length];
+            boolean known = false;
+            for (int i = 0; i < columns.length; i++) {
+                String column = columns[i].trim().replace("\"", "");
+                mapping[i] = -1;
+                for (int j = 0; j < COLUMN_NAMES.length; j++) {
+                    if (COLUMN_NAMES[j].equalsIgnoreCase(column)) {
+                        mapping[i] = j;
+                        known = true;
+                    }
+                }
+            }
+            // use the order of the columns if the names are unknown
+            if (known) {
+                columnMapping = mapping;
+            }
+        }
+        state = State.COPY_DATA;
+    }
+
+    /**
+     * Parse one tab separated data line of a COPY block
+     */
+    private void parseCopyLine(CharSequence line) {
+        int length = line.length();
+        if (length == COPY_END.length() && startsWith(line, 0, COPY_END)) {
+            state = State.OUTSIDE;
+            return;
+        }
+        fieldIndex = 0;
+        int fieldStart = 0;
+        startField();
+        int pos = 0;
+        while (pos <= length) {
+            if (pos == length || line.charAt(pos) == '\t') {
+                if (!buffered && pos - fieldStart == COPY_NULL.length() && startsWith(line, fieldStart, COPY_NULL)) {
+                    setField(null);
+                } else {
+                    setField(takeField(line, fieldStart, pos));
+                }
+                startField();
+                fieldStart = pos + 1;
+            } else if (pos == fieldStart && isCopyNull(line, pos)) {
+                // \N is not unescaped, it is recognized as NULL at the end of the field
+                pos++;
+            } else if (line.charAt(pos) == '\\' && pos + 1 < length) {
+                moveToBuffer(line, fieldStart, pos);
+                pos++;
+                pos = unescapeCopy(line, pos);
+                fieldStart = pos + 1;
+            }
+            pos++;
+        }
+        endRow();
+    }
+
+    /**
+     * Append the character of a backslash sequence of the COPY text format to the buffer. Octal and hexadecimal sequences are bytes, all such
+     * sequences in a row are collected and decoded together as UTF-8, so that escaped multibyte characters stay intact.
+     * 
+     * @return the position of the last character of the sequence
+     */
+    private int unescapeCopy(CharSequence line, int pos) {
+        if (!isByteEscape(line, pos)) {
+            char c = line.charAt(pos);
+            buffer.append(c == 'v' ? '\u000B' : unescape(c));
+            return pos;
+        }
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        while (true) {
+            pos = readEscapedByte(line, pos, bytes);
+            // continue with the next sequence if it follows directly
+            if (pos + 2 < line.length() && line.charAt(pos + 1) == '\\' && isByteEscape(line, pos + 2)) {
+                pos += 2;
+            } else {
+                break;
+            }
+        }
+        buffer.append(new String(bytes.toByteArray(), StandardCharsets.UTF_8));
+        return pos;
+    }
+
+    /**
+     * @return true if the field that starts at the position is \N and nothing else
+     */
+    private static boolean isCopyNull(CharSequence line, int pos) {
+        int end = pos + COPY_NULL.length();
+        return startsWith(line, pos, COPY_NULL) && (end == line.length() || line.charAt(end) == '\t');
+    }
+
+    private static boolean isByteEscape(CharSequence line, int pos) {
+        char c = line.charAt(pos);
+        return (c >= '0' && c <= '7') || (c == 'x' && pos + 1 < line.length() && Character.digit(line.charAt(pos + 1), 16) >= 0);
+    }
+
+    /**
+     * Read one octal (up to three digits) or hexadecimal (one or two digits) sequence
+     * 
+     * @return the position of the last digit
+     */
+    private static int readEscapedByte(CharSequence line, int pos, ByteArrayOutputStream bytes) {
+        int value = 0;
+        if (line.charAt(pos) == 'x') {
+            value = Character.digit(line.charAt(++pos), 16);
+            if (pos + 1 < line.length() && Character.digit(line.charAt(pos + 1), 16) >= 0) {
+                value = value * 16 + Character.digit(line.charAt(++pos), 16);
+            }
+        } else {
+            int end = Math.min(pos + 3, line.length());
+            while (pos < end && line.charAt(pos) >= '0' && line.charAt(pos) <= '7') {
+                value = value * 8 + (line.charAt(pos) - '0');
+                pos++;
+            }
+            pos--;
+        }
+        bytes.write(value & 0xFF);
+        return pos;
+    }
+
+    private void endRow() {
+        BSZ_BodenseeImport_Element element =
+                new BSZ_BodenseeImport_Element(fields[0], fields[1], fields[2], fields[3], fields[4], fields[5], fields[6]);
+        for (int i = 0; i < FIELD_COUNT; i++) {
+            fields[i] = null;
+        }
+        consumer.accept(element);
+    }
+
+    /**
+     * Follow the setting of standard_conforming_strings in the dump as it defines if backslashes in string literals are escape characters
+     */
+    private void checkSettings(CharSequence line) {
+        if (startsWith(line, 0, "SET standard_conforming_strings")) {
+            String setting = line.toString();
+            standardConformingStrings = !setting.contains("off");
+        }
+    }
+
+    private static char unescape(char c) {
+        switch (c) {
+            case 'n':
+                return '\n';
+            case 't':
+                return '\t';
+            case 'r':
+                return '\r';
+            case 'b':
+                return '\b';
+            case 'f':
+                return '\f';
+            default:
+                return c;
+        }
+    }
+
+    private static boolean startsWith(CharSequence line, int offset, String prefix) {
+        if (line.length() - offset < prefix.length()) {
+            return false;
+        }
+        for (int i = 0; i < prefix.length(); i++) {
+            if (line.charAt(offset + i) != prefix.charAt(i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Check if the given keyword starts at the offset as a separate word and not as part of a longer name
+     */
+    private static boolean isKeyword(CharSequence line, int offset, String keyword) {
+        if (line.length() - offset < keyword.length()) {
+            return false;
+        }
+        if (offset > 0 && isNameCharacter(line.charAt(offset - 1))) {
+            return false;
+        }
+        int end = offset + keyword.length();
+        if (end < line.length() && isNameCharacter(line.charAt(end))) {
+            return false;
+        }
+        for (int i = 0; i < keyword.length(); i++) {
+            if (Character.toUpperCase(line.charAt(offset + i)) != keyword.charAt(i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static boolean isNameCharacter(char c) {
+        return Character.isLetterOrDigit(c) || c == '_' || c == '.';
+    }
+}
@@ -0,0 +1,36 @@
+package de.intranda.goobi.plugins.bsz;
+
+import java.io.File;
+
+import lombok.Getter;
+
+/**
+ * Identifiers and file names of the import of one record (a year or an issue), created when the import of the record starts and never changed. As
+ * each record has its own context, several records can be imported by the same helper at the same time.
+ */
+@Getter
+public final class BSZ_BodenseeImport_VolumeContext {
+
+    // year/issue key of the record
+    private final String recordId;
+    // identifier of the volume, used for the identifiers, the folder and the METS file
+    private final String ppnVolume;
+    private final String processTitle;
+    // folder of the volume in the temp folder of Goobi, ending with a separator
+    private final String volumeFolder;
+    private final String metsFileName;
+
+    /**
+     * @param recordId the year/issue key of the record
+     * @param ppnVolume the identifier of the volume
+     * @param processTitle the title of the process to create
+     * @param tempFolder the temp folder of Goobi where the METS file and the images are written to
+     */
+    public BSZ_BodenseeImport_VolumeContext(String recordId, String ppnVolume, String processTitle, String tempFolder) {
+        this.recordId = recordId;
+        this.ppnVolume = ppnVolume;
+        this.processTitle = processTitle;
+        this.volumeFolder = tempFolder + ppnVolume + File.separator;
+        this.metsFileName = tempFolder + ppnVolume + ".xml";
+    }
+}
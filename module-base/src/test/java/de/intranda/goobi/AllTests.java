@@ -4,8 +4,32 @@ import org.junit.runner.RunWith;
 import org.junit.runners.Suite;
 import org.junit.runners.Suite.SuiteClasses;
 
+import de.intranda.goobi.plugins.bsz.BSZ_BodenseeImport_CatalogueCacheTest;
+import de.intranda.goobi.plugins.bsz.BSZ_BodenseeImport_CatalogueGuardTest;
+import de.intranda.goobi.plugins.bsz.BSZ_BodenseeImport_DumpIndexTest;
+import de.intranda.goobi.plugins.bsz.BSZ_BodenseeImport_DumpSourceTest;
+import de.intranda.goobi.plugins.bsz.BSZ_BodenseeImport_ElementTest;
+import de.intranda.goobi.plugins.bsz.BSZ_BodenseeImport_HelperTest;
+import de.intranda.goobi.plugins.bsz.BSZ_BodenseeImport_ImageStagerTest;
+import de.intranda.goobi.plugins.bsz.BSZ_BodenseeImport_ImportStateTest;
+import de.intranda.goobi.plugins.bsz.BSZ_BodenseeImport_MappedReaderTest;
+import de.intranda.goobi.plugins.bsz.BSZ_BodenseeImport_MetsWriterTest;
+import de.intranda.goobi.plugins.bsz.BSZ_BodenseeImport_PageStructureBuilderTest;
+import de.intranda.goobi.plugins.bsz.BSZ_BodenseeImport_PageTableTest;
+import de.intranda.goobi.plugins.bsz.BSZ_BodenseeImport_RulesetTypesTest;
+import de.intranda.goobi.plugins.bsz.BSZ_BodenseeImport_SidecarIndexTest;
+import de.intranda.goobi.plugins.bsz.BSZ_BodenseeImport_SqlParserTest;
+
 @RunWith(Suite.class)
-@SuiteClasses({  })
+@SuiteClasses({ BSZ_BodenseeImport_SqlParserTest.class, BSZ_BodenseeImport_DumpIndexTest.class,
+        BSZ_BodenseeImport_SidecarIndexTest.class, BSZ_BodenseeImport_PageTableTest.class,
+        BSZ_BodenseeImport_ImageStagerTest.class,
+        BSZ_BodenseeImport_ImportStateTest.class,
+        BSZ_BodenseeImport_MetsWriterTest.class, BSZ_BodenseeImport_CatalogueGuardTest.class,
+        BSZ_BodenseeImport_CatalogueCacheTest.class, BSZ_BodenseeImport_HelperTest.class,
+        BSZ_BodenseeImport_DumpSourceTest.class, BSZ_BodenseeImport_ElementTest.class,
+        BSZ_BodenseeImport_MappedReaderTest.class, BSZ_BodenseeImport_RulesetTypesTest.class,
+        BSZ_BodenseeImport_PageStructureBuilderTest.class })
 public class AllTests {
 
 }
@@ -0,0 +1,188 @@
+package de.intranda.goobi.plugins.bsz;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import ugh.dl.DigitalDocument;
+import ugh.dl.DocStruct;
+import ugh.dl.Fileformat;
+import ugh.dl.Prefs;
+import ugh.fileformats.mets.MetsMods;
+
+public class BSZ_BodenseeImport_CatalogueCacheTest {
+
+    private static final String CATALOGUE = "BSZ-BW";
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private final BSZ_BodenseeImport_CatalogueCache cache = BSZ_BodenseeImport_CatalogueCache.getInstance();
+    private final AtomicInteger requests = new AtomicInteger();
+    private Prefs prefs;
+    private File cacheFolder;
+
+    @Before
+    public void setUp() throws Exception {
+        prefs = BSZ_BodenseeImport_MetsWriterTest.loadRuleset("bsz_ruleset.xml");
+        cacheFolder = folder.newFolder("cache");
+        cache.setFolder(cacheFolder);
+        cache.setRulesetFolder(folder.newFolder("rulesets"));
+        cache.setEnabled(true);
+        cache.setOffline(false);
+        cache.setTimeToLive(TimeUnit.HOURS.toMillis(1));
+        cache.setMaximumSize(Long.MAX_VALUE);
+    }
+
+    @After
+    public void tearDown() {
+        cache.setOffline(false);
+        cache.setFolder(new File(folder.getRoot(), "unused"));
+    }
+
+    /**
+     * @return a request that counts its calls and finds a record with the given title
+     */
+    private BSZ_BodenseeImport_CatalogueCache.Request request(String title) {
+        return () -> {
+            requests.incrementAndGet();
+            DigitalDocument dd = new DigitalDocument();
+            DocStruct volume = dd.createDocStruct(prefs.getDocStrctTypeByName("PeriodicalVolume"));
+            BSZ_BodenseeImport_MetsWriterTest.addMetadata(volume, prefs.getMetadataTypeByName("TitleDocMain"), title);
+            dd.setLogicalDocStruct(volume);
+            Fileformat ff = new MetsMods(prefs);
+            ff.setDigitalDocument(dd);
+            return ff;
+        };
+    }
+
+    private BSZ_BodenseeImport_CatalogueCache.Request failingRequest() {
+        return () -> {
+            requests.incrementAndGet();
+            throw new IOException("catalogue is down");
+        };
+    }
+
+    private static String getTitle(Fileformat record) throws Exception {
+        return record.getDigitalDocument().getLogicalDocStruct().getAllMetadata().get(0).getValue();
+    }
+
+    private File[] getEntryFiles() {
+        return cacheFolder.listFiles((dir, name) -> name.endsWith(".xml"));
+    }
+
+    /**
+     * Let all entries of the cache be older than their time to live
+     */
+    private void expireEntries() {
+        for (File file : getEntryFiles()) {
+            file.setLastModified(System.currentTimeMillis() - TimeUnit.HOURS.toMillis(2));
+        }
+    }
+
+    @Test
+    public void testCachedRecordHasTheSameShape() throws Exception {
+        Fileformat requested = cache.search(CATALOGUE, "123", prefs, request("Jahrbuch"));
+        Fileformat cached = cache.search(CATALOGUE, "123", prefs, request("Jahrbuch"));
+        assertEquals(1, requests.get());
+        assertEquals("Jahrbuch", getTitle(cached));
+        // the physical structure that is needed to write the entry is not part of the cached record
+        assertNull(requested.getDigitalDocument().getPhysicalDocStruct());
+        assertNull(cached.getDigitalDocument().getPhysicalDocStruct());
+        assertEquals(1, getEntryFiles().length);
+        // no temp folder is left behind
+        assertEquals(1, cacheFolder.listFiles().length);
+    }
+
+    @Test
+    public void testRecordNotFound() throws Exception {
+        assertNull(cache.search(CATALOGUE, "123", prefs, () -> null));
+        assertEquals(0, getEntryFiles().length);
+    }
+
+    @Test
+    public void testExpiredEntryIsRequestedAgain() throws Exception {
+        cache.search(CATALOGUE, "123", prefs, request("alt"));
+        expireEntries();
+        assertEquals("neu", getTitle(cache.search(CATALOGUE, "123", prefs, request("neu"))));
+        assertEquals(2, requests.get());
+        assertEquals("neu", getTitle(cache.search(CATALOGUE, "123", prefs, request("neu"))));
+        assertEquals(2, requests.get());
+    }
+
+    @Test
+    public void testExpiredEntryIsUsedIfTheCatalogueFails() throws Exception {
+        cache.search(CATALOGUE, "123", prefs, request("alt"));
+        expireEntries();
+        assertEquals("alt", getTitle(cache.search(CATALOGUE, "123", prefs, failingRequest())));
+        assertEquals(2, requests.get());
+    }
+
+    @Test
+    public void testFailureWithoutEntry() throws Exception {
+        try {
+            cache.search(CATALOGUE, "123", prefs, failingRequest());
+            fail("the failure of the catalogue must be passed on");
+        } catch (IOException e) {
+            assertEquals("catalogue is down", e.getMessage());
+        }
+    }
+
+    @Test
+    public void testOffline() throws Exception {
+        cache.search(CATALOGUE, "123", prefs, request("alt"));
+        expireEntries();
+        cache.setOffline(true);
+        // entries are served regardless of their age
+        assertEquals("alt", getTitle(cache.search(CATALOGUE, "123", prefs, request("neu"))));
+        try {
+            cache.search(CATALOGUE, "456", prefs, request("neu"));
+            fail("a record that is not cached cannot be served offline");
+        } catch (IllegalStateException e) {
+            assertTrue(e.getMessage(), e.getMessage().contains("456"));
+        }
+        assertEquals(1, requests.get());
+    }
+
+    @Test
+    public void testLeastRecentlyUsedEntryIsEvicted() throws Exception {
+        cache.search(CATALOGUE, "1", prefs, request("eins"));
+        long entrySize = getEntryFiles()[0].length();
+        // room for two entries only
+        cache.setMaximumSize(entrySize * 5 / 2);
+        cache.search(CATALOGUE, "2", prefs, request("zwei"));
+        // the first entry is used again, so the second one is the least recently used
+        cache.search(CATALOGUE, "1", prefs, request("eins"));
+        cache.search(CATALOGUE, "3", prefs, request("drei"));
+        assertEquals(3, requests.get());
+        assertEquals(2, getEntryFiles().length);
+
+        cache.search(CATALOGUE, "1", prefs, request("eins"));
+        assertEquals(3, requests.get());
+        cache.search(CATALOGUE, "2", prefs, request("zwei"));
+        assertEquals(4, requests.get());
+    }
+
+    @Test
+    public void testBrokenEntryIsRequestedAgain() throws Exception {
+        cache.search(CATALOGUE, "123", prefs, request("alt"));
+        File entry = getEntryFiles()[0];
+        Files.write(entry.toPath(), "kein METS".getBytes(StandardCharsets.UTF_8));
+        assertEquals("neu", getTitle(cache.search(CATALOGUE, "123", prefs, request("neu"))));
+        assertEquals(2, requests.get());
+    }
+}
@@ -0,0 +1,109 @@
+package de.intranda.goobi.plugins.bsz;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.IOException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Test;
+
+public class BSZ_BodenseeImport_CatalogueGuardTest {
+
+    private final AtomicInteger requests = new AtomicInteger();
+
+    /**
+     * @return a request that takes the given time and finds nothing
+     */
+    private BSZ_BodenseeImport_CatalogueCache.Request slowRequest(long millis) {
+        return () -> {
+            requests.incrementAndGet();
+            Thread.sleep(millis);
+            return null;
+        };
+    }
+
+    private BSZ_BodenseeImport_CatalogueCache.Request failingRequest() {
+        return () -> {
+            requests.incrementAndGet();
+            throw new IOException("catalogue is down");
+        };
+    }
+
+    private static void assertFails(BSZ_BodenseeImport_CatalogueGuard guard, BSZ_BodenseeImport_CatalogueCache.Request request, String message) {
+        try {
+            guard.search("123", request);
+            fail("the request must fail");
+        } catch (IOException e) {
+            assertTrue(e.getMessage(), e.getMessage().contains(message));
+        }
+    }
+
+    @Test
+    public void testRequestWithinLimits() throws IOException {
+        BSZ_BodenseeImport_CatalogueGuard guard = new BSZ_BodenseeImport_CatalogueGuard(1000, 10000, 3);
+        assertNull(guard.search("123", slowRequest(0)));
+        assertEquals(1, requests.get());
+        assertFalse(guard.isOpen());
+    }
+
+    @Test
+    public void testTimeout() {
+        BSZ_BodenseeImport_CatalogueGuard guard = new BSZ_BodenseeImport_CatalogueGuard(50, 10000, 3);
+        long start = System.currentTimeMillis();
+        assertFails(guard, slowRequest(5000), "did not answer within 50 ms");
+        // the hanging request is left behind
+        assertTrue(System.currentTimeMillis() - start < 2000);
+        assertFalse(guard.isOpen());
+    }
+
+    @Test
+    public void testBudgetCountsOnlyTheRequests() throws IOException, InterruptedException {
+        BSZ_BodenseeImport_CatalogueGuard guard = new BSZ_BodenseeImport_CatalogueGuard(1000, 200, 3);
+        // time between the requests does not use up the budget
+        Thread.sleep(300);
+        guard.search("123", slowRequest(0));
+        assertEquals(1, requests.get());
+
+        guard.search("123", slowRequest(150));
+        assertTrue(guard.getUsedTime() >= 150);
+        // the last request gets only the rest of the budget as timeout
+        assertFails(guard, slowRequest(5000), "did not answer within");
+        assertTrue(guard.getUsedTime() >= 200);
+        // the budget is used up, the catalogue is not asked anymore
+        assertFails(guard, slowRequest(0), "Time budget");
+        assertEquals(3, requests.get());
+    }
+
+    @Test
+    public void testBreakerOpensAfterFailuresInARow() throws IOException {
+        BSZ_BodenseeImport_CatalogueGuard guard = new BSZ_BodenseeImport_CatalogueGuard(1000, 10000, 3);
+        assertFails(guard, failingRequest(), "catalogue is down");
+        assertFails(guard, failingRequest(), "catalogue is down");
+        // a successful request starts counting again
+        guard.search("123", slowRequest(0));
+        assertFails(guard, failingRequest(), "catalogue is down");
+        assertFails(guard, failingRequest(), "catalogue is down");
+        assertFalse(guard.isOpen());
+        assertFails(guard, failingRequest(), "catalogue is down");
+        assertTrue(guard.isOpen());
+        assertEquals(6, requests.get());
+
+        // the catalogue is not asked anymore in this run
+        assertFails(guard, slowRequest(0), "not available");
+        assertEquals(6, requests.get());
+    }
+
+    @Test
+    public void testTimeoutsOpenTheBreaker() {
+        BSZ_BodenseeImport_CatalogueGuard guard = new BSZ_BodenseeImport_CatalogueGuard(20, 10000, 2);
+        assertFails(guard, slowRequest(5000), "did not answer");
+        assertFails(guard, slowRequest(5000), "did not answer");
+        assertTrue(guard.isOpen());
+        assertFails(guard, slowRequest(0), "not available");
+        assertEquals(2, requests.get());
+    }
+}
@@ -0,0 +1,122 @@
+package de.intranda.goobi.plugins.bsz;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.zip.GZIPOutputStream;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class BSZ_BodenseeImport_DumpIndexTest {
+
+    static final String DUMP = String.join("\n", "SET standard_conforming_strings = on;", "",
+            "INSERT INTO wbjb VALUES ('wbjb-j1988-h001-t-002', 'wbjb.01', 'wbjb', 2, '1988', '2', '/data/wbjb/1988/wbjb-J1988-H001-S002.jpg');",
+            "INSERT INTO wbjb VALUES ('wbjb-j1988-h001-t-001', 'wbjb.01', 'wbjb', 1, '1988', 'Titel, 1', '/data/wbjb/1988/wbjb-J1988-H001-S001.jpg');",
+            "INSERT INTO wbjb VALUES ('wbjb-j1988-h002-t-001', 'wbjb.02', 'wbjb', 3, '1988', '1', '/data/wbjb/1988/wbjb-J1988-H002-S001.jpg'),",
+            "('wbjb-j1988-h002-t-002', 'wbjb.02', 'wbjb', 4, '1988', '2', '/data/wbjb/1988/wbjb-J1988-H002-S002.jpg');",
+            "COPY wbjb (pageid, bookletid, journalid, lfnr, jahr, label, jpg) FROM stdin;",
+            "wbjb-j1989-h001-t-001\twbjb.01\twbjb\t5\t1989\t1\t/data/wbjb/1989/wbjb-J1989-H001-S001.jpg",
+            "wbjb-j1989-h001-t-002\twbjb.01\twbjb\t6\t1989\t\\N\t/data/wbjb/1989/wbjb-J1989-H001-S002.jpg", "\\.", "");
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private File write(String name, String content) throws IOException {
+        File file = folder.newFile(name);
+        Files.write(file.toPath(), content.getBytes(StandardCharsets.UTF_8));
+        return file;
+    }
+
+    static List<String> getPageIds(BSZ_BodenseeImport_PageTable pages) {
+        List<String> ids = new ArrayList<>();
+        BSZ_BodenseeImport_PageTable.Cursor cursor = pages.cursor();
+        while (cursor.next()) {
+            ids.add(cursor.getPageid());
+        }
+        return ids;
+    }
+
+    @Test
+    public void testGroupsAreSortedByImage() throws IOException {
+        BSZ_BodenseeImport_DumpIndex index = BSZ_BodenseeImport_DumpIndex.build(write("wbjb.sql", DUMP), false);
+        assertEquals(Arrays.asList("1988_001", "1988_002", "1989_001"), index.getKeys());
+        assertEquals(Arrays.asList("wbjb-j1988-h001-t-001", "wbjb-j1988-h001-t-002"), getPageIds(index.getPages("1988_001")));
+        assertEquals(Arrays.asList("wbjb-j1988-h002-t-001", "wbjb-j1988-h002-t-002"), getPageIds(index.getPages("1988_002")));
+
+        BSZ_BodenseeImport_PageTable.Cursor cursor = index.getPages("1988_001").cursor();
+        assertTrue(cursor.next());
+        assertEquals("Titel, 1", cursor.getLabel());
+        assertEquals("1", cursor.getLfnr());
+        assertEquals("wbjb-J1988-H001-S001.jpg", cursor.getFileName());
+
+        cursor = index.getPages("1989_001").cursor();
+        assertTrue(cursor.next());
+        assertTrue(cursor.next());
+        assertNull(cursor.getLabel());
+        assertFalse(cursor.next());
+    }
+
+    @Test
+    public void testUnknownKey() throws IOException {
+        BSZ_BodenseeImport_DumpIndex index = BSZ_BodenseeImport_DumpIndex.build(write("wbjb.sql", DUMP), false);
+        assertTrue(index.getPages("2000").isEmpty());
+    }
+
+    @Test
+    public void testSeparateBookletIds() throws IOException {
+        BSZ_BodenseeImport_DumpIndex index = BSZ_BodenseeImport_DumpIndex.build(write("wbjb.sql", DUMP), true);
+        assertEquals(Arrays.asList("1988_001_wbjb.01", "1988_002_wbjb.02", "1989_001_wbjb.01"), index.getKeys());
+    }
+
+    @Test
+    public void testParallelParseEqualsSequentialParse() throws IOException {
+        StringBuilder dump = new StringBuilder();
+        for (int i = 0; i < 2000; i++) {
+            int year = 1900 + i % 7;
+            dump.append(String.format("INSERT INTO wbjb VALUES ('wbjb-j%d-h%02d-t-%04d', 'wbjb.%02d', 'wbjb', %d, '%d', 'S. %d', '/data/%d/%04d.jpg');\n",
+                    year, i % 3, i, i % 3, i, year, i, year, i));
+        }
+        File sqlFile = write("wbjb.sql", dump.toString());
+        BSZ_BodenseeImport_DumpIndex sequential = BSZ_BodenseeImport_DumpIndex.build(sqlFile, false, 1);
+        BSZ_BodenseeImport_DumpIndex parallel = BSZ_BodenseeImport_DumpIndex.build(sqlFile, false, 4);
+        assertEquals(21, sequential.getKeys().size());
+        assertEquals(sequential.getKeys(), parallel.getKeys());
+        for (String key : sequential.getKeys()) {
+            assertEquals(getPageIds(sequential.getPages(key)), getPageIds(parallel.getPages(key)));
+        }
+        assertEquals(sequential.getHashes(), parallel.getHashes());
+    }
+
+    @Test
+    public void testCompressedDump() throws IOException {
+        File sqlFile = folder.newFile("wbjb.sql.gz");
+        try (OutputStream out = new GZIPOutputStream(Files.newOutputStream(sqlFile.toPath()))) {
+            out.write(DUMP.getBytes(StandardCharsets.UTF_8));
+        }
+        BSZ_BodenseeImport_DumpIndex compressed = BSZ_BodenseeImport_DumpIndex.build(sqlFile, false, 4);
+        BSZ_BodenseeImport_DumpIndex plain = BSZ_BodenseeImport_DumpIndex.build(write("wbjb.sql", DUMP), false);
+        assertEquals(plain.getKeys(), compressed.getKeys());
+        assertEquals(plain.getHashes(), compressed.getHashes());
+    }
+
+    @Test
+    public void testStale() throws IOException {
+        File sqlFile = write("wbjb.sql", DUMP);
+        BSZ_BodenseeImport_DumpIndex index = BSZ_BodenseeImport_DumpIndex.build(sqlFile, false);
+        assertFalse(index.isStale());
+        Files.write(sqlFile.toPath(), (DUMP + "\n").getBytes(StandardCharsets.UTF_8));
+        assertTrue(index.isStale());
+    }
+}
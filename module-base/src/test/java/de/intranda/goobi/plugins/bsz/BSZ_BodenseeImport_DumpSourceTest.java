@@ -0,0 +1,95 @@
+package de.intranda.goobi.plugins.bsz;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+
+import org.junit.Assume;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class BSZ_BodenseeImport_DumpSourceTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private File write(String name, String content) throws IOException {
+        File file = folder.newFile(name);
+        Files.write(file.toPath(), content.getBytes(StandardCharsets.UTF_8));
+        return file;
+    }
+
+    /**
+     * @return true if the zstd command can be run on this machine
+     */
+    private static boolean isZstdInstalled() {
+        try {
+            Process process = new ProcessBuilder(BSZ_BodenseeImport_DumpSource.ZSTD_COMMAND, "--version").redirectErrorStream(true).start();
+            process.getInputStream().readAllBytes();
+            return process.waitFor() == 0;
+        } catch (IOException e) {
+            return false;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        }
+    }
+
+    private static String readAll(File dumpFile) throws IOException {
+        StringBuilder content = new StringBuilder();
+        try (BufferedReader reader = BSZ_BodenseeImport_DumpSource.openReader(dumpFile)) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                content.append(line).append('\n');
+            }
+        }
+        return content.toString();
+    }
+
+    @Test
+    public void testZstdDump() throws IOException, InterruptedException {
+        Assume.assumeTrue("zstd is not installed", isZstdInstalled());
+        File sqlFile = write("wbjb.sql", BSZ_BodenseeImport_DumpIndexTest.DUMP);
+        File compressedFile = new File(folder.getRoot(), "wbjb.sql.zst");
+        Process process = new ProcessBuilder(BSZ_BodenseeImport_DumpSource.ZSTD_COMMAND, "--quiet", "-o", compressedFile.getAbsolutePath(),
+                sqlFile.getAbsolutePath()).inheritIO().start();
+        assertEquals(0, process.waitFor());
+
+        assertEquals(BSZ_BodenseeImport_DumpIndexTest.DUMP, readAll(compressedFile));
+        BSZ_BodenseeImport_DumpIndex compressed = BSZ_BodenseeImport_DumpIndex.build(compressedFile, false, 4);
+        BSZ_BodenseeImport_DumpIndex plain = BSZ_BodenseeImport_DumpIndex.build(sqlFile, false);
+        assertEquals(plain.getKeys(), compressed.getKeys());
+        assertEquals(plain.getHashes(), compressed.getHashes());
+    }
+
+    @Test
+    public void testBrokenZstdDump() throws IOException {
+        Assume.assumeTrue("zstd is not installed", isZstdInstalled());
+        File compressedFile = write("wbjb.sql.zst", BSZ_BodenseeImport_DumpIndexTest.DUMP);
+        try {
+            readAll(compressedFile);
+            fail("a dump that zstd cannot decompress must not be read as an empty or shorter dump");
+        } catch (IOException e) {
+            assertTrue(e.getMessage(), e.getMessage().contains("exit code"));
+        }
+    }
+
+    @Test
+    public void testMissingZstdCommand() throws IOException {
+        File compressedFile = write("wbjb.sql.zst", "");
+        try (InputStream in = BSZ_BodenseeImport_DumpSource.openZstd(compressedFile, "zstd-is-not-installed")) {
+            fail("the missing command must be reported");
+        } catch (IOException e) {
+            assertTrue(e.getMessage(), e.getMessage().contains("'zstd-is-not-installed'"));
+            assertTrue(e.getMessage(), e.getMessage().contains(compressedFile.getAbsolutePath()));
+        }
+    }
+}
@@ -0,0 +1,71 @@
+package de.intranda.goobi.plugins.bsz;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import org.junit.Test;
+
+public class BSZ_BodenseeImport_ElementTest {
+
+    private static BSZ_BodenseeImport_Element create(String pageid, String bookletid, String jpg) {
+        return new BSZ_BodenseeImport_Element(pageid, bookletid, "wbjb", "1", "1988", "1", jpg);
+    }
+
+    @Test
+    public void testKeyWithIssue() {
+        BSZ_BodenseeImport_Element element = create("wbjb-j1988-h002-t-001", "wbjb.02", "/data/1988/001.jpg");
+        assertEquals("002", element.getIssueNumber());
+        assertTrue(element.isNumericIssue());
+        assertEquals("1988_002", element.getKey(false));
+        assertEquals("1988_002_wbjb.02", element.getKey(true));
+    }
+
+    @Test
+    public void testShortIssueNumberIsPadded() {
+        BSZ_BodenseeImport_Element element = create("wbjb_j1988_h3_t_001", "wbjb.03", "/data/1988/001.jpg");
+        assertEquals("03", element.getIssueNumber());
+        assertEquals("1988_03", element.getKey(false));
+    }
+
+    @Test
+    public void testIssueOfTheBookletId() {
+        BSZ_BodenseeImport_Element element = create("aaaaaaaaa-001", "wbjb.04", "/data/1988/001.jpg");
+        assertEquals("04", element.getIssueNumber());
+        assertEquals("1988_04", element.getKey(false));
+    }
+
+    @Test
+    public void testKeyWithoutIssue() {
+        // the issue number is not numeric, the element belongs to its year only
+        assertEquals("1988", create("wbjb-j1988-hxy-t-001", "wbjb.01", "/data/1988/001.jpg").getKey(false));
+
+        BSZ_BodenseeImport_Element withoutPageId = create(null, "wbjb.01", "/data/1988/001.jpg");
+        assertEquals("", withoutPageId.getIssueNumber());
+        assertFalse(withoutPageId.isNumericIssue());
+        assertEquals("1988", withoutPageId.getKey(false));
+
+        BSZ_BodenseeImport_Element withoutBookletId = create("aaaaaaaaa-001", null, "/data/1988/001.jpg");
+        assertEquals("", withoutBookletId.getIssueNumber());
+        assertEquals("1988", withoutBookletId.getKey(false));
+    }
+
+    @Test
+    public void testSortKey() {
+        BSZ_BodenseeImport_Element second = create("wbjb-j1988-h001-t-002", "wbjb.01", "/data/1988/WBJB-S002.jpg");
+        BSZ_BodenseeImport_Element first = create("wbjb-j1988-h001-t-001", "wbjb.01", "/data/1988/wbjb-s001.jpg");
+        BSZ_BodenseeImport_Element withoutImage = create("wbjb-j1988-h001-t-003", "wbjb.01", null);
+        assertEquals("/data/1988/wbjb-s002.jpg", second.getSortKey());
+        assertEquals("", withoutImage.getSortKey());
+
+        // ordered by the image name regardless of its case, elements without image come first
+        List<BSZ_BodenseeImport_Element> elements = new ArrayList<>(Arrays.asList(second, withoutImage, first));
+        Collections.sort(elements);
+        assertEquals(Arrays.asList(withoutImage, first, second), elements);
+    }
+}
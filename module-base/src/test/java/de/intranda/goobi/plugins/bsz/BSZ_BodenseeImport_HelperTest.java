@@ -0,0 +1,93 @@
+package de.intranda.goobi.plugins.bsz;
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.File;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Test;
+
+public class BSZ_BodenseeImport_HelperTest {
+
+    private static final List<String> RECORDS = Arrays.asList("1988", "1989", "1990", "1991", "1992", "1993");
+
+    private final AtomicInteger progress = new AtomicInteger();
+
+    /**
+     * Import a record in a time that gets shorter with each record, so the later records finish first
+     */
+    private static void importSlowly(List<String> answer, String record) {
+        try {
+            Thread.sleep((RECORDS.size() - RECORDS.indexOf(record)) * 20L);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        if (record.equals("1990")) {
+            throw new IllegalStateException("broken record");
+        }
+        answer.add(record);
+        if (record.equals("1992")) {
+            // a record may have more than one result
+            answer.add(record + "_2");
+        }
+    }
+
+    private List<String> importAll(int threads) {
+        return BSZ_BodenseeImport_Helper.importInOrder(RECORDS, threads, progress::incrementAndGet,
+                BSZ_BodenseeImport_HelperTest::importSlowly, (record, cause) -> record + " failed: " + cause.getMessage());
+    }
+
+    @Test
+    public void testResultsInTheOrderOfTheRecords() {
+        List<String> expected = Arrays.asList("1988", "1989", "1990 failed: broken record", "1991", "1992", "1992_2", "1993");
+        assertEquals(expected, importAll(4));
+        assertEquals(RECORDS.size(), progress.get());
+        assertEquals(expected, importAll(RECORDS.size()));
+    }
+
+    @Test
+    public void testFailureDoesNotStopTheOtherRecords() {
+        List<String> imported = new ArrayList<>();
+        List<String> results = BSZ_BodenseeImport_Helper.importInOrder(RECORDS, 2, progress::incrementAndGet, (answer, record) -> {
+            if (record.startsWith("198")) {
+                throw new IllegalStateException(record);
+            }
+            synchronized (imported) {
+                imported.add(record);
+            }
+            answer.add(record);
+        }, (record, cause) -> "failed " + cause.getMessage());
+        assertEquals(Arrays.asList("failed 1988", "failed 1989", "1990", "1991", "1992", "1993"), results);
+        assertEquals(4, imported.size());
+    }
+
+    @Test
+    public void testMissingImages() {
+        BSZ_BodenseeImport_PageTable pages = BSZ_BodenseeImport_PageTable.of(BSZ_BodenseeImport_MetsWriterTest.PAGES);
+        List<String> listed = new ArrayList<>();
+        // the second image of each issue was not delivered
+        List<String> missing = BSZ_BodenseeImport_Helper.findMissingImages(pages, page -> new File("/import", page.getJpg()), folder -> {
+            listed.add(folder);
+            return Arrays.asList(Paths.get(folder, "wbjb-J1988-H001-S001.jpg"), Paths.get(folder, "wbjb-J1988-H001-S003.jpg"),
+                    Paths.get(folder, "wbjb-J1988-H002-S001.jpg"));
+        });
+        assertEquals(Arrays.asList(new File("/import/data/wbjb/1988/wbjb-J1988-H001-S002.jpg").getAbsolutePath(),
+                new File("/import/data/wbjb/1988/wbjb-J1988-H002-S002.jpg").getAbsolutePath()), missing);
+        // the folder of all pages is listed only once
+        assertEquals(1, listed.size());
+    }
+
+    @Test
+    public void testMissingFolder() {
+        BSZ_BodenseeImport_PageTable pages = BSZ_BodenseeImport_PageTable.of(BSZ_BodenseeImport_MetsWriterTest.PAGES.subList(0, 2));
+        List<String> missing = BSZ_BodenseeImport_Helper.findMissingImages(pages, page -> new File("/import", page.getJpg()),
+                folder -> Collections.<Path> emptyList());
+        assertEquals(2, missing.size());
+    }
+}
@@ -0,0 +1,326 @@
+package de.intranda.goobi.plugins.bsz;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.attribute.FileTime;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HexFormat;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import org.junit.Assume;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class BSZ_BodenseeImport_ImageStagerTest {
+
+    private static final FileTime SOURCE_TIME = FileTime.fromMillis(1_500_000_000_000L);
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private Path sources;
+    private Path targets;
+
+    @Before
+    public void setUp() throws IOException {
+        sources = folder.newFolder("sources").toPath();
+        targets = folder.newFolder("targets").toPath();
+    }
+
+    private Path createSource(String name, String content) throws IOException {
+        Path source = sources.resolve(name);
+        Files.write(source, content.getBytes(StandardCharsets.UTF_8));
+        Files.setLastModifiedTime(source, SOURCE_TIME);
+        return source;
+    }
+
+    private static String read(Path file) throws IOException {
+        return new String(Files.readAllBytes(file), StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Change the content of a staged image without changing its size and modification time
+     */
+    private static void tamper(Path target) throws IOException {
+        byte[] content = Files.readAllBytes(target);
+        content[0] = (byte) (content[0] == 'X' ? 'Y' : 'X');
+        FileTime time = Files.getLastModifiedTime(target);
+        Files.write(target, content);
+        Files.setLastModifiedTime(target, time);
+    }
+
+    private static void stage(BSZ_BodenseeImport_ImageStager stager, Path source, Path target) throws IOException {
+        stager.add(source, target);
+        stager.stageAll();
+    }
+
+    @Test
+    public void testCopy() throws IOException {
+        BSZ_BodenseeImport_ImageStager stager = new BSZ_BodenseeImport_ImageStager(BSZ_BodenseeImport_ImageStager.Strategy.COPY, 4);
+        for (int i = 1; i <= 20; i++) {
+            stager.add(createSource(i + ".jpg", "image " + i), targets.resolve(String.format("%08d.jpg", i)));
+        }
+        stager.stageAll();
+        for (int i = 1; i <= 20; i++) {
+            Path target = targets.resolve(String.format("%08d.jpg", i));
+            assertEquals("image " + i, read(target));
+            assertFalse(Files.isSymbolicLink(target));
+            // the modification time marks a complete copy
+            assertEquals(SOURCE_TIME.toMillis(), Files.getLastModifiedTime(target).toMillis());
+        }
+    }
+
+    @Test
+    public void testSharedExecutor() throws IOException {
+        ExecutorService executor = Executors.newFixedThreadPool(2);
+        try {
+            // the stagers of two volumes use the same pool, it stays usable after each volume
+            for (String volume : new String[] { "a", "b" }) {
+                BSZ_BodenseeImport_ImageStager stager = new BSZ_BodenseeImport_ImageStager(BSZ_BodenseeImport_ImageStager.Strategy.COPY, 8);
+                stager.setExecutor(executor);
+                for (int i = 1; i <= 5; i++) {
+                    stager.add(createSource(volume + i + ".jpg", volume + " " + i), targets.resolve(volume + i + ".jpg"));
+                }
+                stager.stageAll();
+                assertFalse(executor.isShutdown());
+            }
+            for (int i = 1; i <= 5; i++) {
+                assertEquals("a " + i, read(targets.resolve("a" + i + ".jpg")));
+                assertEquals("b " + i, read(targets.resolve("b" + i + ".jpg")));
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    public void testIdenticalTargetIsKept() throws IOException {
+        Path source = createSource("a.jpg", "original");
+        Path target = targets.resolve("00000001.jpg");
+        stage(new BSZ_BodenseeImport_ImageStager(BSZ_BodenseeImport_ImageStager.Strategy.COPY, 1), source, target);
+        tamper(target);
+
+        // same size and modification time, so the target is not copied again
+        stage(new BSZ_BodenseeImport_ImageStager(BSZ_BodenseeImport_ImageStager.Strategy.COPY, 1), source, target);
+        assertEquals("Xriginal", read(target));
+    }
+
+    @Test
+    public void testVerifiedContent() throws IOException {
+        Path source = createSource("a.jpg", "original");
+        Path target = targets.resolve("00000001.jpg");
+        stage(new BSZ_BodenseeImport_ImageStager(BSZ_BodenseeImport_ImageStager.Strategy.COPY, 1), source, target);
+        tamper(target);
+
+        BSZ_BodenseeImport_ImageStager stager = new BSZ_BodenseeImport_ImageStager(BSZ_BodenseeImport_ImageStager.Strategy.COPY, 1);
+        stager.setVerifyContent(true);
+        stage(stager, source, target);
+        assertEquals("original", read(target));
+    }
+
+    @Test
+    public void testSkipIdenticalDisabled() throws IOException {
+        Path source = createSource("a.jpg", "original");
+        Path target = targets.resolve("00000001.jpg");
+        stage(new BSZ_BodenseeImport_ImageStager(BSZ_BodenseeImport_ImageStager.Strategy.COPY, 1), source, target);
+        tamper(target);
+
+        BSZ_BodenseeImport_ImageStager stager = new BSZ_BodenseeImport_ImageStager(BSZ_BodenseeImport_ImageStager.Strategy.COPY, 1);
+        stager.setSkipIdentical(false);
+        stage(stager, source, target);
+        assertEquals("original", read(target));
+    }
+
+    @Test
+    public void testChangedSourceIsCopiedAgain() throws IOException {
+        Path source = createSource("a.jpg", "original");
+        Path target = targets.resolve("00000001.jpg");
+        stage(new BSZ_BodenseeImport_ImageStager(BSZ_BodenseeImport_ImageStager.Strategy.COPY, 1), source, target);
+
+        createSource("a.jpg", "changed");
+        Files.setLastModifiedTime(source, FileTime.fromMillis(SOURCE_TIME.toMillis() + 1000));
+        stage(new BSZ_BodenseeImport_ImageStager(BSZ_BodenseeImport_ImageStager.Strategy.COPY, 1), source, target);
+        assertEquals("changed", read(target));
+    }
+
+    @Test
+    public void testIncompleteCopyIsCopiedAgain() throws IOException {
+        Path source = createSource("a.jpg", "original");
+        Path target = targets.resolve("00000001.jpg");
+        // an interrupted copy has the full size but not yet the modification time of the source
+        Files.write(target, "XXXXXXXX".getBytes(StandardCharsets.UTF_8));
+        stage(new BSZ_BodenseeImport_ImageStager(BSZ_BodenseeImport_ImageStager.Strategy.COPY, 1), source, target);
+        assertEquals("original", read(target));
+    }
+
+    @Test
+    public void testSymbolicLink() throws IOException {
+        Path source = createSource("a.jpg", "original");
+        Path target = targets.resolve("00000001.jpg");
+        stage(new BSZ_BodenseeImport_ImageStager(BSZ_BodenseeImport_ImageStager.Strategy.SYMLINK, 1), source, target);
+        assertTrue(Files.isSymbolicLink(target));
+        assertEquals(source.toAbsolutePath(), Files.readSymbolicLink(target));
+        stage(new BSZ_BodenseeImport_ImageStager(BSZ_BodenseeImport_ImageStager.Strategy.SYMLINK, 1), source, target);
+        assertTrue(Files.isSymbolicLink(target));
+
+        // a link is replaced by a copy as soon as copies are wanted, the source is never written into
+        stage(new BSZ_BodenseeImport_ImageStager(BSZ_BodenseeImport_ImageStager.Strategy.COPY, 1), source, target);
+        assertFalse(Files.isSymbolicLink(target));
+        assertEquals("original", read(target));
+        assertEquals("original", read(source));
+    }
+
+    @Test
+    public void testStrategyByName() {
+        assertEquals(BSZ_BodenseeImport_ImageStager.Strategy.HARDLINK, BSZ_BodenseeImport_ImageStager.Strategy.getByName(" hardlink "));
+        assertEquals(BSZ_BodenseeImport_ImageStager.Strategy.COPY, BSZ_BodenseeImport_ImageStager.Strategy.getByName("softlink"));
+        assertEquals(BSZ_BodenseeImport_ImageStager.Strategy.COPY, BSZ_BodenseeImport_ImageStager.Strategy.getByName(null));
+    }
+
+    @Test
+    public void testHardLink() throws IOException {
+        Path source = createSource("a.jpg", "original");
+        Path target = targets.resolve("00000001.jpg");
+        BSZ_BodenseeImport_ImageStager stager = new BSZ_BodenseeImport_ImageStager(BSZ_BodenseeImport_ImageStager.Strategy.HARDLINK, 1);
+        stage(stager, source, target);
+        assertTrue(Files.isSameFile(source, target));
+        assertEquals(BSZ_BodenseeImport_ImageStager.Strategy.HARDLINK, stager.getStrategy());
+
+        // a hard link is replaced by a copy as soon as copies are wanted
+        stage(new BSZ_BodenseeImport_ImageStager(BSZ_BodenseeImport_ImageStager.Strategy.COPY, 1), source, target);
+        assertFalse(Files.isSameFile(source, target));
+        assertEquals("original", read(target));
+    }
+
+    @Test
+    public void testFailedLinkFallsBackToCopy() throws IOException {
+        BSZ_BodenseeImport_ImageStager stager = new BSZ_BodenseeImport_ImageStager(BSZ_BodenseeImport_ImageStager.Strategy.REFLINK, 2);
+        for (int i = 1; i <= 5; i++) {
+            stager.add(createSource(i + ".jpg", "image " + i), targets.resolve(String.format("%08d.jpg", i)));
+        }
+        stager.stageAll();
+        Assume.assumeTrue("the temp folder supports reflinks", stager.getStrategy() == BSZ_BodenseeImport_ImageStager.Strategy.COPY);
+        // every image is there, the one that failed to link as well
+        for (int i = 1; i <= 5; i++) {
+            Path target = targets.resolve(String.format("%08d.jpg", i));
+            assertEquals("image " + i, read(target));
+            assertFalse(Files.isSameFile(sources.resolve(i + ".jpg"), target));
+        }
+    }
+
+    @Test
+    public void testLinkAcrossFilesystemsFallsBackToCopy() throws IOException {
+        Path shared = Paths.get("/dev/shm");
+        Assume.assumeTrue("no second filesystem", Files.isDirectory(shared) && Files.isWritable(shared)
+                && !Files.getFileStore(shared).equals(Files.getFileStore(sources)));
+        Path otherTargets = Files.createTempDirectory(shared, "targets");
+        try {
+            Path target = otherTargets.resolve("00000001.jpg");
+            BSZ_BodenseeImport_ImageStager stager = new BSZ_BodenseeImport_ImageStager(BSZ_BodenseeImport_ImageStager.Strategy.HARDLINK, 1);
+            stage(stager, createSource("a.jpg", "original"), target);
+            // the filesystems are compared before the first image, so no link is tried
+            assertEquals(BSZ_BodenseeImport_ImageStager.Strategy.COPY, stager.getStrategy());
+            assertEquals("original", read(target));
+        } finally {
+            Files.deleteIfExists(otherTargets.resolve("00000001.jpg"));
+            Files.deleteIfExists(otherTargets);
+        }
+    }
+
+    @Test
+    public void testFolder() throws IOException {
+        createSource("a.jpg", "a");
+        Files.createDirectories(sources.resolve("sub"));
+        Files.write(sources.resolve("sub").resolve("b.jpg"), "b".getBytes(StandardCharsets.UTF_8));
+        Path target = targets.resolve("images");
+        new BSZ_BodenseeImport_ImageStager(BSZ_BodenseeImport_ImageStager.Strategy.COPY, 2).stageFolder(sources, target);
+        assertEquals("a", read(target.resolve("a.jpg")));
+        assertEquals("b", read(target.resolve("sub").resolve("b.jpg")));
+    }
+
+    @Test
+    public void testMissingSource() throws IOException {
+        BSZ_BodenseeImport_ImageStager stager = new BSZ_BodenseeImport_ImageStager(BSZ_BodenseeImport_ImageStager.Strategy.COPY, 2);
+        stager.add(createSource("a.jpg", "a"), targets.resolve("00000001.jpg"));
+        stager.add(sources.resolve("missing.jpg"), targets.resolve("00000002.jpg"));
+        try {
+            stager.stageAll();
+            fail("a missing image must be reported");
+        } catch (IOException e) {
+            assertTrue(e.getMessage(), e.getMessage().contains("missing.jpg"));
+        }
+        // the other images are staged anyway
+        assertArrayEquals("a".getBytes(StandardCharsets.UTF_8), Files.readAllBytes(targets.resolve("00000001.jpg")));
+    }
+
+    private static String sha256(String content) throws NoSuchAlgorithmException {
+        return HexFormat.of().formatHex(MessageDigest.getInstance("SHA-256").digest(content.getBytes(StandardCharsets.UTF_8)));
+    }
+
+    @Test
+    public void testManifest() throws IOException, NoSuchAlgorithmException {
+        Path source = createSource("a.jpg", "original");
+        Path images = Files.createDirectories(targets.resolve("images"));
+        BSZ_BodenseeImport_ImageStager stager = new BSZ_BodenseeImport_ImageStager(BSZ_BodenseeImport_ImageStager.Strategy.COPY, 1);
+        stager.setManifestFolder(targets);
+        stage(stager, source, images.resolve("00000001.jpg"));
+        stager.writeManifest();
+        Path manifest = targets.resolve(BSZ_BodenseeImport_ImageStager.MANIFEST_NAME);
+        assertEquals(List.of(sha256("original") + "  images/00000001.jpg"), Files.readAllLines(manifest, StandardCharsets.UTF_8));
+        assertEquals("original", read(images.resolve("00000001.jpg")));
+    }
+
+    @Test
+    public void testManifestOfKeptImage() throws IOException, NoSuchAlgorithmException {
+        Path source = createSource("a.jpg", "original");
+        Path target = targets.resolve("00000001.jpg");
+        BSZ_BodenseeImport_ImageStager stager = new BSZ_BodenseeImport_ImageStager(BSZ_BodenseeImport_ImageStager.Strategy.COPY, 1);
+        stager.setManifestFolder(targets);
+        stage(stager, source, target);
+        stager.writeManifest();
+        tamper(target);
+
+        // the kept image is read again instead of taking the digest of the former manifest
+        stager = new BSZ_BodenseeImport_ImageStager(BSZ_BodenseeImport_ImageStager.Strategy.COPY, 1);
+        stager.setManifestFolder(targets);
+        stage(stager, source, target);
+        stager.writeManifest();
+        assertEquals("Xriginal", read(target));
+        assertEquals(List.of(sha256("Xriginal") + "  00000001.jpg"),
+                Files.readAllLines(targets.resolve(BSZ_BodenseeImport_ImageStager.MANIFEST_NAME), StandardCharsets.UTF_8));
+    }
+
+    @Test
+    public void testManifestListsOnlyTheCurrentImages() throws IOException, NoSuchAlgorithmException {
+        Path first = createSource("a.jpg", "first");
+        Path second = createSource("b.jpg", "second");
+        BSZ_BodenseeImport_ImageStager stager = new BSZ_BodenseeImport_ImageStager(BSZ_BodenseeImport_ImageStager.Strategy.COPY, 2);
+        stager.setManifestFolder(targets);
+        stager.add(first, targets.resolve("00000001.jpg"));
+        stager.add(second, targets.resolve("00000002.jpg"));
+        stager.stageAll();
+        stager.writeManifest();
+
+        // the volume has only one image in the next delivery, the entry of the other one must not be kept
+        stager = new BSZ_BodenseeImport_ImageStager(BSZ_BodenseeImport_ImageStager.Strategy.COPY, 2);
+        stager.setManifestFolder(targets);
+        stage(stager, second, targets.resolve("00000001.jpg"));
+        stager.writeManifest();
+        assertEquals(List.of(sha256("second") + "  00000001.jpg"),
+                Files.readAllLines(targets.resolve(BSZ_BodenseeImport_ImageStager.MANIFEST_NAME), StandardCharsets.UTF_8));
+    }
+}
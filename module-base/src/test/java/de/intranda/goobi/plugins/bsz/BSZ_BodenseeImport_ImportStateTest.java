@@ -0,0 +1,105 @@
+package de.intranda.goobi.plugins.bsz;
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.TreeMap;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class BSZ_BodenseeImport_ImportStateTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private File stateFile;
+    private Map<String, String> hashes;
+    // number of processes per title as the database would count them
+    private Map<String, Integer> processes;
+
+    @Before
+    public void setUp() {
+        stateFile = new File(folder.getRoot(), "wbjb" + BSZ_BodenseeImport_ImportState.FILE_EXTENSION);
+        hashes = new TreeMap<>();
+        hashes.put("1988_001", "a");
+        hashes.put("1988_002", "b");
+        hashes.put("1989", "c");
+        processes = new HashMap<>();
+    }
+
+    private int count(String processTitle) {
+        return processes.getOrDefault(processTitle, 0);
+    }
+
+    @Test
+    public void testNothingImported() {
+        assertEquals(Arrays.asList("1988_001", "1988_002", "1989"), BSZ_BodenseeImport_ImportState.load(stateFile).getChangedKeys(hashes));
+    }
+
+    @Test
+    public void testImportedGroupsAreStored() {
+        BSZ_BodenseeImport_ImportState.load(stateFile).markPending("1988_001", "a", "wbjb_1988_001", 0);
+        BSZ_BodenseeImport_ImportState.load(stateFile).markPending("1989", "old", "wbjb_1989", 0);
+        BSZ_BodenseeImport_ImportState.load(stateFile).confirmPending(title -> 1);
+        assertEquals(Arrays.asList("1988_002", "1989"), BSZ_BodenseeImport_ImportState.load(stateFile).getChangedKeys(hashes));
+    }
+
+    @Test
+    public void testPendingGroupCountsOnceItsProcessExists() {
+        BSZ_BodenseeImport_ImportState state = BSZ_BodenseeImport_ImportState.load(stateFile);
+        state.markPending("1988_001", "a", "wbjb_1988_001", count("wbjb_1988_001"));
+        // Goobi did not create the process yet
+        state.confirmPending(this::count);
+        assertEquals(Arrays.asList("1988_001", "1988_002", "1989"), state.getChangedKeys(hashes));
+
+        processes.put("wbjb_1988_001", 1);
+        state = BSZ_BodenseeImport_ImportState.load(stateFile);
+        state.confirmPending(this::count);
+        assertEquals(Arrays.asList("1988_002", "1989"), state.getChangedKeys(hashes));
+        assertEquals(Arrays.asList("1988_002", "1989"), BSZ_BodenseeImport_ImportState.load(stateFile).getChangedKeys(hashes));
+    }
+
+    @Test
+    public void testExistingProcessDoesNotConfirm() {
+        // a process of the former delivery exists already, a second one must be created for the changed rows
+        BSZ_BodenseeImport_ImportState state = BSZ_BodenseeImport_ImportState.load(stateFile);
+        state.markPending("1989", "old", "wbjb_1989", count("wbjb_1989"));
+        processes.put("wbjb_1989", 1);
+        state.confirmPending(this::count);
+        state.markPending("1989", "c", "wbjb_1989", count("wbjb_1989"));
+        state.confirmPending(this::count);
+        assertEquals(Arrays.asList("1988_001", "1988_002", "1989"), state.getChangedKeys(hashes));
+
+        processes.put("wbjb_1989", 2);
+        state.confirmPending(this::count);
+        assertEquals(Arrays.asList("1988_001", "1988_002"), state.getChangedKeys(hashes));
+    }
+
+    @Test
+    public void testUnknownCount() {
+        BSZ_BodenseeImport_ImportState state = BSZ_BodenseeImport_ImportState.load(stateFile);
+        state.markPending("1988_001", "a", "wbjb_1988_001", -1);
+        state.confirmPending(title -> -1);
+        assertEquals(Arrays.asList("1988_001", "1988_002", "1989"), state.getChangedKeys(hashes));
+        state.confirmPending(title -> 1);
+        assertEquals(Arrays.asList("1988_002", "1989"), state.getChangedKeys(hashes));
+    }
+
+    @Test
+    public void testBrokenStateFile() throws IOException {
+        Files.write(stateFile.toPath(), "pending.1988_001=a x\n1988_002=b\n".getBytes(StandardCharsets.UTF_8));
+        BSZ_BodenseeImport_ImportState state = BSZ_BodenseeImport_ImportState.load(stateFile);
+        state.confirmPending(title -> 1);
+        // the pending entry without its number of processes is dropped
+        assertEquals(Arrays.asList("1988_001", "1989"), state.getChangedKeys(hashes));
+    }
+}
@@ -0,0 +1,94 @@
+package de.intranda.goobi.plugins.bsz;
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class BSZ_BodenseeImport_MappedReaderTest {
+
+    // single line statements of two years, a statement over several lines, a COPY block and the setting of standard_conforming_strings
+    private static final String DUMP = String.join("\n", "SET standard_conforming_strings = off;",
+            "INSERT INTO wbjb VALUES ('wbjb-j1988-h001-t-001', 'wbjb.01', 'wbjb', 1, '1988', 'Titel', '/data/1988/001.jpg');",
+            "INSERT INTO wbjb VALUES ('wbjb-j1989-h001-t-001', 'wbjb.01', 'wbjb', 2, '1989', 'A\\'s', '/data/1989/001.jpg');",
+            "INSERT INTO wbjb VALUES ('wbjb-j1988-h001-t-002', 'wbjb.01', 'wbjb', 3, '1988', '1', '/data/1988/002.jpg'),",
+            "('wbjb-j1989-h001-t-002', 'wbjb.01', 'wbjb', 4, '1989', '1', '/data/1989/002.jpg');",
+            "COPY wbjb (pageid, bookletid, journalid, lfnr, jahr, label, jpg) FROM stdin;",
+            "wbjb-j1988-h002-t-001\twbjb.02\twbjb\t5\t1988\t1\t/data/1988/003.jpg",
+            "wbjb-j1989-h002-t-001\twbjb.02\twbjb\t6\t1989\t2\t/data/1989/003.jpg", "\\.",
+            "INSERT INTO wbjb VALUES ('wbjb-j1989-h002-t-002', 'wbjb.02', 'wbjb', 7, '1989', '3', '/data/1989/004.jpg');");
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private File write(String content) throws IOException {
+        File file = new File(folder.getRoot(), "wbjb.sql");
+        Files.write(file.toPath(), content.getBytes(StandardCharsets.UTF_8));
+        return file;
+    }
+
+    private static List<String> getPageIds(List<BSZ_BodenseeImport_Element> elements) {
+        List<String> ids = new ArrayList<>();
+        for (BSZ_BodenseeImport_Element element : elements) {
+            ids.add(element.getPageid());
+        }
+        return ids;
+    }
+
+    private static List<BSZ_BodenseeImport_Element> read(File sqlFile, String year) throws IOException {
+        List<BSZ_BodenseeImport_Element> elements = new ArrayList<>();
+        new BSZ_BodenseeImport_MappedReader(sqlFile).read(year, elements::add);
+        return elements;
+    }
+
+    /**
+     * @return the rows of the dump as the line based parser finds them
+     */
+    private static List<BSZ_BodenseeImport_Element> parse(String dump) {
+        List<BSZ_BodenseeImport_Element> elements = new ArrayList<>();
+        BSZ_BodenseeImport_SqlParser parser = new BSZ_BodenseeImport_SqlParser(elements::add);
+        for (String line : dump.split("\n")) {
+            parser.parseLine(line);
+        }
+        return elements;
+    }
+
+    @Test
+    public void testAllRows() throws IOException {
+        List<BSZ_BodenseeImport_Element> elements = read(write(DUMP), null);
+        assertEquals(parse(DUMP), elements);
+        assertEquals(7, elements.size());
+    }
+
+    @Test
+    public void testYearFilter() throws IOException {
+        List<BSZ_BodenseeImport_Element> elements = read(write(DUMP), "1989");
+        // all rows of the year are found, the single line statement and the COPY row of 1988 are skipped, the statement over several lines is
+        // parsed completely
+        assertEquals(Arrays.asList("wbjb-j1989-h001-t-001", "wbjb-j1988-h001-t-002", "wbjb-j1989-h001-t-002", "wbjb-j1989-h002-t-001",
+                "wbjb-j1989-h002-t-002"), getPageIds(elements));
+        // the setting before the skipped lines is still applied
+        assertEquals("A's", elements.get(0).getLabel());
+
+        assertEquals(Arrays.asList("wbjb-j1988-h001-t-001", "wbjb-j1988-h001-t-002", "wbjb-j1989-h001-t-002", "wbjb-j1988-h002-t-001"),
+                getPageIds(read(write(DUMP), "1988")));
+        assertEquals(Arrays.asList("wbjb-j1988-h001-t-002", "wbjb-j1989-h001-t-002"), getPageIds(read(write(DUMP), "2000")));
+    }
+
+    @Test
+    public void testWindowsLineBreaks() throws IOException {
+        List<BSZ_BodenseeImport_Element> elements = read(write(DUMP.replace("\n", "\r\n")), "1989");
+        assertEquals(5, elements.size());
+        assertEquals("/data/1989/004.jpg", elements.get(4).getJpg());
+        assertEquals(parse(DUMP), read(write(DUMP.replace("\n", "\r\n")), null));
+    }
+}
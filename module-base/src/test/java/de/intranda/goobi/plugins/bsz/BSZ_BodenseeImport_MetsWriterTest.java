@@ -0,0 +1,197 @@
+package de.intranda.goobi.plugins.bsz;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+
+import java.io.File;
+import java.net.URISyntaxException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+import javax.xml.parsers.DocumentBuilderFactory;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+import org.w3c.dom.NamedNodeMap;
+import org.w3c.dom.Node;
+import org.w3c.dom.NodeList;
+
+import ugh.dl.DigitalDocument;
+import ugh.dl.DocStruct;
+import ugh.dl.Fileformat;
+import ugh.dl.Metadata;
+import ugh.dl.MetadataType;
+import ugh.dl.Prefs;
+import ugh.exceptions.UGHException;
+import ugh.fileformats.mets.MetsMods;
+
+public class BSZ_BodenseeImport_MetsWriterTest {
+
+    private static final String METS_NS = "http://www.loc.gov/METS/";
+    private static final String LOCATION_PREFIX = "file://wbjb_1988_tif";
+
+    // two issues, each page has a label
+    static final List<BSZ_BodenseeImport_Element> PAGES = Arrays.asList(
+            new BSZ_BodenseeImport_Element("wbjb-j1988-h001-t-001", "wbjb.01", "wbjb", "1", "1988", "Titel", "/data/wbjb/1988/wbjb-J1988-H001-S001.jpg"),
+            new BSZ_BodenseeImport_Element("wbjb-j1988-h001-t-002", "wbjb.01", "wbjb", "2", "1988", "1", "/data/wbjb/1988/wbjb-J1988-H001-S002.jpg"),
+            new BSZ_BodenseeImport_Element("wbjb-j1988-h001-t-003", "wbjb.01", "wbjb", "3", "1988", "2", "/data/wbjb/1988/wbjb-J1988-H001-S003.jpg"),
+            new BSZ_BodenseeImport_Element("wbjb-j1988-h002-t-001", "wbjb.02", "wbjb", "4", "1988", "3", "/data/wbjb/1988/wbjb-J1988-H002-S001.jpg"),
+            new BSZ_BodenseeImport_Element("wbjb-j1988-h002-t-002", "wbjb.02", "wbjb", "5", "1988", "4", "/data/wbjb/1988/wbjb-J1988-H002-S002.jpg"));
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private Prefs prefs;
+    private BSZ_BodenseeImport_RulesetTypes types;
+
+    /**
+     * Load a ruleset of the test resources
+     */
+    static Prefs loadRuleset(String name) throws Exception {
+        Prefs prefs = new Prefs();
+        prefs.loadPrefs(getResource(name).getAbsolutePath());
+        return prefs;
+    }
+
+    private static File getResource(String name) throws URISyntaxException {
+        return new File(BSZ_BodenseeImport_MetsWriterTest.class.getResource("/" + name).toURI());
+    }
+
+    @Before
+    public void setUp() throws Exception {
+        prefs = loadRuleset("bsz_ruleset.xml");
+        types = BSZ_BodenseeImport_RulesetTypes.resolve(prefs, true);
+    }
+
+    /**
+     * Create a volume with its issues and pages, the pages are either created as structural elements or handed to the given writer
+     */
+    static Fileformat createVolume(Prefs prefs, BSZ_BodenseeImport_RulesetTypes types, List<BSZ_BodenseeImport_Element> pages,
+            BSZ_BodenseeImport_MetsWriter writer) throws Exception {
+        DigitalDocument dd = new DigitalDocument();
+        DocStruct volume = dd.createDocStruct(prefs.getDocStrctTypeByName("PeriodicalVolume"));
+        addMetadata(volume, types.getTitleDocMain(), "Jahrbuch 1988");
+        dd.setLogicalDocStruct(volume);
+        DocStruct physical = dd.createDocStruct(types.getBoundBook());
+        addMetadata(physical, types.getPathimagefiles(), "bsz123_1988");
+        dd.setPhysicalDocStruct(physical);
+
+        BSZ_BodenseeImport_PageStructureBuilder builder = new BSZ_BodenseeImport_PageStructureBuilder(dd, types, LOCATION_PREFIX, true);
+        builder.setMetsWriter(writer);
+        builder.build("wbjb_1988", BSZ_BodenseeImport_PageTable.of(pages), volume, firstPage -> {
+            DocStruct issue = dd.createDocStruct(types.getPeriodicalIssue());
+            addMetadata(issue, types.getTitleDocMain(), "Jahrbuch 1988-" + firstPage.getIssueNumber());
+            volume.addChild(issue);
+            return issue;
+        });
+
+        Fileformat ff = new MetsMods(prefs);
+        ff.setDigitalDocument(dd);
+        return ff;
+    }
+
+    static void addMetadata(DocStruct ds, MetadataType type, String value) throws UGHException {
+        Metadata md = new Metadata(type);
+        md.setValue(value);
+        ds.addMetadata(md);
+    }
+
+    /**
+     * Describe an element and all of its children in a comparable form: the name, the attributes ordered by name and the children, text between the
+     * elements is left out
+     */
+    static String describe(Element element) {
+        StringBuilder description = new StringBuilder(element.getLocalName());
+        Map<String, String> attributes = new TreeMap<>();
+        NamedNodeMap nodes = element.getAttributes();
+        for (int i = 0; i < nodes.getLength(); i++) {
+            Node attribute = nodes.item(i);
+            if (!"http://www.w3.org/2000/xmlns/".equals(attribute.getNamespaceURI())) {
+                attributes.put(attribute.getLocalName(), attribute.getNodeValue());
+            }
+        }
+        description.append(attributes);
+        List<String> children = new ArrayList<>();
+        for (Node child = element.getFirstChild(); child != null; child = child.getNextSibling()) {
+            if (child.getNodeType() == Node.ELEMENT_NODE) {
+                children.add(describe((Element) child));
+            }
+        }
+        if (!children.isEmpty()) {
+            description.append(children);
+        }
+        return description.toString();
+    }
+
+    private static Document parse(File file) throws Exception {
+        DocumentBuilderFactory factory = DocumentBuilderFactory.newInstance();
+        factory.setNamespaceAware(true);
+        return factory.newDocumentBuilder().parse(file);
+    }
+
+    /**
+     * @return the descriptions of all METS elements with the given name, and of the given TYPE if set
+     */
+    private static List<String> describe(Document document, String name, String type) {
+        List<String> descriptions = new ArrayList<>();
+        NodeList elements = document.getElementsByTagNameNS(METS_NS, name);
+        for (int i = 0; i < elements.getLength(); i++) {
+            Element element = (Element) elements.item(i);
+            if (type == null || type.equals(element.getAttribute("TYPE"))) {
+                descriptions.add(describe(element));
+            }
+        }
+        return descriptions;
+    }
+
+    private void assertSameAsMetsMods(List<BSZ_BodenseeImport_Element> pages) throws Exception {
+        File expectedFile = new File(folder.getRoot(), "metsmods.xml");
+        MetsMods mm = new MetsMods(prefs);
+        mm.setDigitalDocument(createVolume(prefs, types, pages, null).getDigitalDocument());
+        mm.write(expectedFile.getAbsolutePath());
+
+        File actualFile = new File(folder.getRoot(), "streamed.xml");
+        BSZ_BodenseeImport_MetsWriter writer = new BSZ_BodenseeImport_MetsWriter(types);
+        writer.write(createVolume(prefs, types, pages, writer), prefs, actualFile.getAbsolutePath());
+        assertFalse(new File(folder.getRoot(), "streamed.xml.tmp").exists());
+
+        Document expected = parse(expectedFile);
+        Document actual = parse(actualFile);
+        assertEquals(describe(expected, "fileSec", null), describe(actual, "fileSec", null));
+        assertEquals(describe(expected, "structMap", "PHYSICAL"), describe(actual, "structMap", "PHYSICAL"));
+        assertEquals(describe(expected, "structMap", "LOGICAL"), describe(actual, "structMap", "LOGICAL"));
+        assertEquals(describe(expected, "structLink", null), describe(actual, "structLink", null));
+    }
+
+    @Test
+    public void testSameAsMetsMods() throws Exception {
+        assertSameAsMetsMods(PAGES);
+    }
+
+    @Test
+    public void testSingleIssueSameAsMetsMods() throws Exception {
+        assertSameAsMetsMods(PAGES.subList(0, 3));
+    }
+
+    @Test
+    public void testFileOfEachPage() throws Exception {
+        File file = new File(folder.getRoot(), "streamed.xml");
+        BSZ_BodenseeImport_MetsWriter writer = new BSZ_BodenseeImport_MetsWriter(types);
+        writer.write(createVolume(prefs, types, PAGES, writer), prefs, file.getAbsolutePath());
+
+        NodeList locations = parse(file).getElementsByTagNameNS(METS_NS, "FLocat");
+        assertEquals(PAGES.size(), locations.getLength());
+        for (int i = 0; i < PAGES.size(); i++) {
+            String jpg = PAGES.get(i).getJpg();
+            assertEquals(LOCATION_PREFIX + jpg.substring(jpg.lastIndexOf('/') + 1),
+                    ((Element) locations.item(i)).getAttributeNS("http://www.w3.org/1999/xlink", "href"));
+        }
+    }
+}
@@ -0,0 +1,118 @@
+package de.intranda.goobi.plugins.bsz;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import ugh.dl.DigitalDocument;
+import ugh.dl.DocStruct;
+import ugh.dl.MetadataType;
+import ugh.dl.Prefs;
+import ugh.dl.Reference;
+
+public class BSZ_BodenseeImport_PageStructureBuilderTest {
+
+    private static final String LOCATION_PREFIX = "file://wbjb_1988_tif";
+
+    private Prefs prefs;
+    private BSZ_BodenseeImport_RulesetTypes types;
+    private DigitalDocument dd;
+    private DocStruct volume;
+
+    @Before
+    public void setUp() throws Exception {
+        prefs = BSZ_BodenseeImport_MetsWriterTest.loadRuleset("bsz_ruleset.xml");
+        types = BSZ_BodenseeImport_RulesetTypes.resolve(prefs, true);
+        dd = new DigitalDocument();
+        volume = dd.createDocStruct(prefs.getDocStrctTypeByName("PeriodicalVolume"));
+        dd.setLogicalDocStruct(volume);
+        dd.setPhysicalDocStruct(dd.createDocStruct(types.getBoundBook()));
+    }
+
+    private int[] build(boolean linkIssues, boolean createIssues) throws Exception {
+        BSZ_BodenseeImport_PageStructureBuilder builder = new BSZ_BodenseeImport_PageStructureBuilder(dd, types, LOCATION_PREFIX, linkIssues);
+        return builder.build("wbjb_1988", BSZ_BodenseeImport_PageTable.of(BSZ_BodenseeImport_MetsWriterTest.PAGES), volume, firstPage -> {
+            if (!createIssues) {
+                return volume;
+            }
+            DocStruct issue = dd.createDocStruct(types.getPeriodicalIssue());
+            BSZ_BodenseeImport_MetsWriterTest.addMetadata(issue, types.getTitleDocMain(), "Jahrbuch 1988-" + firstPage.getIssueNumber());
+            volume.addChild(issue);
+            return issue;
+        });
+    }
+
+    private static String getValue(DocStruct ds, MetadataType type) {
+        return ds.getAllMetadataByType(type).get(0).getValue();
+    }
+
+    /**
+     * @return the pages the given element is linked to, in the order of the links
+     */
+    private static List<DocStruct> getLinkedPages(DocStruct ds) {
+        List<DocStruct> pages = new ArrayList<>();
+        if (ds.getAllReferences("to") != null) {
+            for (Reference reference : ds.getAllReferences("to")) {
+                pages.add(reference.getTarget());
+            }
+        }
+        return pages;
+    }
+
+    @Test
+    public void testPages() throws Exception {
+        int[] imageNumbers = build(true, true);
+        assertArrayEquals(new int[] { 1, 2, 3, 4, 5 }, imageNumbers);
+
+        List<DocStruct> pages = dd.getPhysicalDocStruct().getAllChildren();
+        assertEquals(BSZ_BodenseeImport_MetsWriterTest.PAGES.size(), pages.size());
+        for (int i = 0; i < pages.size(); i++) {
+            BSZ_BodenseeImport_Element element = BSZ_BodenseeImport_MetsWriterTest.PAGES.get(i);
+            DocStruct page = pages.get(i);
+            assertEquals(Integer.toString(i + 1), getValue(page, types.getPhysPageNumber()));
+            assertEquals(element.getLabel(), getValue(page, types.getLogicalPageNumber()));
+            String jpg = element.getJpg();
+            assertEquals(LOCATION_PREFIX + jpg.substring(jpg.lastIndexOf('/') + 1), page.getAllContentFiles().get(0).getLocation());
+        }
+    }
+
+    @Test
+    public void testLinksToVolumeAndIssues() throws Exception {
+        build(true, true);
+        List<DocStruct> pages = dd.getPhysicalDocStruct().getAllChildren();
+        assertEquals(pages, getLinkedPages(volume));
+
+        // a new issue starts with each booklet
+        List<DocStruct> issues = volume.getAllChildren();
+        assertEquals(2, issues.size());
+        assertEquals("Jahrbuch 1988-001", getValue(issues.get(0), types.getTitleDocMain()));
+        assertEquals(pages.subList(0, 3), getLinkedPages(issues.get(0)));
+        assertEquals(pages.subList(3, 5), getLinkedPages(issues.get(1)));
+    }
+
+    @Test
+    public void testIssuesWithoutLinks() throws Exception {
+        build(false, true);
+        List<DocStruct> pages = dd.getPhysicalDocStruct().getAllChildren();
+        assertEquals(pages, getLinkedPages(volume));
+        assertEquals(2, volume.getAllChildren().size());
+        for (DocStruct issue : volume.getAllChildren()) {
+            assertTrue(getLinkedPages(issue).isEmpty());
+        }
+    }
+
+    @Test
+    public void testVolumeWithoutIssues() throws Exception {
+        build(false, false);
+        List<DocStruct> pages = dd.getPhysicalDocStruct().getAllChildren();
+        assertEquals(BSZ_BodenseeImport_MetsWriterTest.PAGES.size(), pages.size());
+        assertEquals(pages, getLinkedPages(volume));
+        assertTrue(volume.getAllChildren() == null || volume.getAllChildren().isEmpty());
+    }
+}
@@ -0,0 +1,107 @@
+package de.intranda.goobi.plugins.bsz;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.Test;
+
+public class BSZ_BodenseeImport_PageTableTest {
+
+    private static final List<BSZ_BodenseeImport_Element> ELEMENTS = Arrays.asList(
+            new BSZ_BodenseeImport_Element("wbjb-j1988-h001-t-002", "wbjb.01", "wbjb", "2", "1988", "2", "/data/wbjb/1988/wbjb-J1988-H001-S002.jpg"),
+            new BSZ_BodenseeImport_Element("wbjb-j1988-h001-t-001", "wbjb.01", "wbjb", "0", "1988", "Titel", "/data/wbjb/1988/wbjb-J1988-H001-S001.jpg"),
+            // running numbers that are no canonical int are kept as text
+            new BSZ_BodenseeImport_Element("wbjb-j1988-h002-t-001", "wbjb.02", "wbjb", "007", "1988", "1", "/data/wbjb/1988/wbjb-J1988-H002-S001.jpg"),
+            new BSZ_BodenseeImport_Element("wbjb-j1988-h002-t-002", "wbjb.02", "wbjb", "-3", "1988", "2", "/data/wbjb/1988/wbjb-J1988-H002-S002.jpg"),
+            new BSZ_BodenseeImport_Element("wbjb-j1988-h002-t-003", "wbjb.02", "wbjb", "99999999999", "1988", "3", "/data/wbjb/1988/wbjb-J1988-H002-S003.jpg"),
+            new BSZ_BodenseeImport_Element("wbjb-j1988-h002-t-004", "wbjb.02", "wbjb", "4a", "1988", "4", "/data/wbjb/1988/wbjb-J1988-H002-S004.jpg"),
+            new BSZ_BodenseeImport_Element("wbjb-j1989-h_1-t-001", "wbjb.01", null, null, "1989", null, "ohne-ordner.jpg"),
+            new BSZ_BodenseeImport_Element("aaaaaaaaa-1", "wbjb.03", "wbjb", "12", "1989", "Sonderheft", null));
+
+    private static List<BSZ_BodenseeImport_Element> read(BSZ_BodenseeImport_PageTable pages) {
+        List<BSZ_BodenseeImport_Element> elements = new ArrayList<>();
+        BSZ_BodenseeImport_PageTable.Cursor cursor = pages.cursor();
+        while (cursor.next()) {
+            BSZ_BodenseeImport_Element element = new BSZ_BodenseeImport_Element(cursor.getPageid(), cursor.getBookletid(), cursor.getJournalid(),
+                    cursor.getLfnr(), cursor.getJahr(), cursor.getLabel(), cursor.getJpg());
+            assertEquals(element.getIssueNumber(), cursor.getIssueNumber());
+            assertEquals(element.isNumericIssue(), cursor.isNumericIssue());
+            assertEquals(element.getKey(false), cursor.getKey(false));
+            assertEquals(element.getKey(true), cursor.getKey(true));
+            elements.add(element);
+        }
+        return elements;
+    }
+
+    @Test
+    public void testRowsAreKept() {
+        BSZ_BodenseeImport_PageTable pages = BSZ_BodenseeImport_PageTable.of(ELEMENTS);
+        assertEquals(ELEMENTS.size(), pages.size());
+        assertEquals(ELEMENTS, read(pages));
+    }
+
+    @Test
+    public void testFileName() {
+        BSZ_BodenseeImport_PageTable.Cursor cursor = BSZ_BodenseeImport_PageTable.of(ELEMENTS).cursor();
+        assertTrue(cursor.next());
+        assertEquals(0, cursor.getPosition());
+        assertEquals("wbjb-J1988-H001-S002.jpg", cursor.getFileName());
+    }
+
+    @Test
+    public void testEmpty() {
+        BSZ_BodenseeImport_PageTable pages = BSZ_BodenseeImport_PageTable.empty();
+        assertTrue(pages.isEmpty());
+        assertFalse(pages.cursor().next());
+        assertTrue(pages.group(false).isEmpty());
+    }
+
+    @Test
+    public void testGroups() {
+        Map<String, BSZ_BodenseeImport_PageTable> groups = BSZ_BodenseeImport_PageTable.of(ELEMENTS).group(false);
+        // the groups are in the order of their first page
+        assertEquals(Arrays.asList("1988_001", "1988_002", "1989", "1989_03"), new ArrayList<>(groups.keySet()));
+        // each group is ordered by the image name, its positions are those of the group
+        BSZ_BodenseeImport_PageTable.Cursor cursor = groups.get("1988_001").cursor();
+        assertTrue(cursor.next());
+        assertEquals(0, cursor.getPosition());
+        assertEquals("wbjb-j1988-h001-t-001", cursor.getPageid());
+        assertTrue(cursor.next());
+        assertEquals(1, cursor.getPosition());
+        assertEquals("wbjb-j1988-h001-t-002", cursor.getPageid());
+        assertFalse(cursor.next());
+        assertEquals(4, groups.get("1988_002").size());
+    }
+
+    @Test
+    public void testHashOfTableEqualsHashOfElements() {
+        BSZ_BodenseeImport_GroupHashes hashes = new BSZ_BodenseeImport_GroupHashes();
+        for (BSZ_BodenseeImport_Element element : ELEMENTS) {
+            hashes.add(element.getKey(false), element);
+        }
+        Map<String, BSZ_BodenseeImport_PageTable> groups = BSZ_BodenseeImport_PageTable.of(ELEMENTS).group(false);
+        assertEquals(groups.keySet(), hashes.getHashes().keySet());
+        for (Map.Entry<String, BSZ_BodenseeImport_PageTable> group : groups.entrySet()) {
+            assertEquals(hashes.getHashes().get(group.getKey()), BSZ_BodenseeImport_GroupHashes.of(group.getValue()));
+        }
+    }
+
+    @Test
+    public void testHashDependsOnRows() {
+        BSZ_BodenseeImport_Element seven = new BSZ_BodenseeImport_Element("p-h01-t-1", "b.01", "wbjb", "7", "1988", "1", "a.jpg");
+        BSZ_BodenseeImport_Element zeroSeven = new BSZ_BodenseeImport_Element("p-h01-t-1", "b.01", "wbjb", "07", "1988", "1", "a.jpg");
+        BSZ_BodenseeImport_Element other = new BSZ_BodenseeImport_Element("p-h01-t-2", "b.01", "wbjb", "8", "1988", "2", "b.jpg");
+        String hash = BSZ_BodenseeImport_GroupHashes.of(BSZ_BodenseeImport_PageTable.of(Arrays.asList(seven, other)));
+        // the order of the rows does not matter
+        assertEquals(hash, BSZ_BodenseeImport_GroupHashes.of(BSZ_BodenseeImport_PageTable.of(Arrays.asList(other, seven))));
+        assertNotEquals(hash, BSZ_BodenseeImport_GroupHashes.of(BSZ_BodenseeImport_PageTable.of(Arrays.asList(zeroSeven, other))));
+        assertNotEquals(hash, BSZ_BodenseeImport_GroupHashes.of(BSZ_BodenseeImport_PageTable.of(Arrays.asList(seven))));
+    }
+}
@@ -0,0 +1,61 @@
+package de.intranda.goobi.plugins.bsz;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import org.junit.Test;
+
+import ugh.dl.Prefs;
+import ugh.exceptions.PreferencesException;
+
+public class BSZ_BodenseeImport_RulesetTypesTest {
+
+    private static String getProblem(Prefs prefs, boolean createIssues) {
+        try {
+            BSZ_BodenseeImport_RulesetTypes.resolve(prefs, createIssues);
+            fail("the missing types must be reported");
+            return null;
+        } catch (PreferencesException e) {
+            return e.getMessage();
+        }
+    }
+
+    @Test
+    public void testAllTypes() throws Exception {
+        BSZ_BodenseeImport_RulesetTypes types =
+                BSZ_BodenseeImport_RulesetTypes.resolve(BSZ_BodenseeImport_MetsWriterTest.loadRuleset("bsz_ruleset.xml"), true);
+        assertEquals("TitleDocMain", types.getTitleDocMain().getName());
+        assertEquals("PeriodicalIssue", types.getPeriodicalIssue().getName());
+        assertEquals("DateOfPublication", types.getDateOfPublication().getName());
+        assertEquals("page", types.getPage().getName());
+    }
+
+    @Test
+    public void testIssueTypesAreOnlyRequiredForIssues() throws Exception {
+        Prefs prefs = BSZ_BodenseeImport_MetsWriterTest.loadRuleset("bsz_ruleset_without_issues.xml");
+        assertEquals("The ruleset does not contain the types DateOfPublication, PeriodicalIssue", getProblem(prefs, true));
+
+        BSZ_BodenseeImport_RulesetTypes types = BSZ_BodenseeImport_RulesetTypes.resolve(prefs, false);
+        assertNull(types.getPeriodicalIssue());
+        assertNull(types.getDateOfPublication());
+        assertNotNull(types.getBoundBook());
+    }
+
+    @Test
+    public void testAllMissingTypesAreListed() {
+        String problem = getProblem(new Prefs(), false);
+        for (String name : new String[] { "TitleDocMain", "CatalogIDDigital", "pathimagefiles", "logicalPageNumber", "BoundBook", "page" }) {
+            assertTrue(problem, problem.contains(name));
+        }
+        assertFalse(problem, problem.contains("PeriodicalIssue"));
+    }
+
+    @Test
+    public void testNoRuleset() {
+        assertEquals("No ruleset is available for the import", getProblem(null, true));
+    }
+}
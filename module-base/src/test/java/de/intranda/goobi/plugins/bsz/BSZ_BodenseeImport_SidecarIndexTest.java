@@ -0,0 +1,155 @@
+package de.intranda.goobi.plugins.bsz;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.stream.Collectors;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class BSZ_BodenseeImport_SidecarIndexTest {
+
+    // a statement with several rows of different years, its rows are found by the statement header
+    private static final String MULTI_ROW_DUMP = String.join("\n", "SET standard_conforming_strings = off;",
+            "INSERT INTO wbjb (pageid, bookletid, journalid, lfnr, jahr, label, jpg) VALUES",
+            "('wbjb-j1990-h001-t-001', 'wbjb.01', 'wbjb', 1, '1990', 'A\\'s', '/data/1990/001.jpg'),",
+            "('wbjb-j1991-h001-t-001', 'wbjb.01', 'wbjb', 2, '1991', '1', '/data/1991/001.jpg'),",
+            "('wbjb-j1990-h001-t-002', 'wbjb.01', 'wbjb', 3, '1990', 'zwei", "Zeilen', '/data/1990/002.jpg');", "");
+
+    // the setting of standard_conforming_strings changes between the rows of the same key
+    private static final String CHANGING_SETTING_DUMP = String.join("\n", "SET standard_conforming_strings = off;",
+            "INSERT INTO wbjb VALUES ('wbjb-j1990-h001-t-001', 'wbjb.01', 'wbjb', 1, '1990', 'A\\'s', '/data/1990/001.jpg');",
+            "SET standard_conforming_strings = on;",
+            "INSERT INTO wbjb VALUES ('wbjb-j1990-h001-t-002', 'wbjb.01', 'wbjb', 2, '1990', 'C:\\Bilder', '/data/1990/002.jpg');", "");
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private File write(String name, String content) throws IOException {
+        File file = new File(folder.getRoot(), name);
+        Files.write(file.toPath(), content.getBytes(StandardCharsets.UTF_8));
+        return file;
+    }
+
+    private static List<String> getPageIds(List<BSZ_BodenseeImport_Element> elements) {
+        List<String> ids = new ArrayList<>();
+        for (BSZ_BodenseeImport_Element element : elements) {
+            ids.add(element.getPageid());
+        }
+        return ids;
+    }
+
+    private static void assertSameAsDumpIndex(File sqlFile, BSZ_BodenseeImport_SidecarIndex index) throws IOException {
+        BSZ_BodenseeImport_DumpIndex dumpIndex = BSZ_BodenseeImport_DumpIndex.build(sqlFile, false);
+        assertEquals(dumpIndex.getKeys(), index.getKeys());
+        for (String key : dumpIndex.getKeys()) {
+            assertEquals(BSZ_BodenseeImport_DumpIndexTest.getPageIds(dumpIndex.getPages(key)), getPageIds(index.getElements(key)));
+        }
+        assertEquals(dumpIndex.getHashes(), index.getHashes());
+    }
+
+    @Test
+    public void testRowsOfKey() throws IOException {
+        File sqlFile = write("wbjb.sql", BSZ_BodenseeImport_DumpIndexTest.DUMP);
+        BSZ_BodenseeImport_SidecarIndex index = BSZ_BodenseeImport_SidecarIndex.load(sqlFile, false, 1);
+        assertTrue(BSZ_BodenseeImport_SidecarIndex.getIndexFile(sqlFile).exists());
+        assertEquals(Arrays.asList("1988_001", "1988_002", "1989_001"), index.getKeys());
+        List<BSZ_BodenseeImport_Element> elements = index.getElements("1988_001");
+        assertEquals(Arrays.asList("wbjb-j1988-h001-t-001", "wbjb-j1988-h001-t-002"), getPageIds(elements));
+        assertEquals("Titel, 1", elements.get(0).getLabel());
+        assertTrue(index.getElements("2000").isEmpty());
+        assertSameAsDumpIndex(sqlFile, index);
+    }
+
+    @Test
+    public void testMultiRowStatement() throws IOException {
+        File sqlFile = write("wbjb.sql", MULTI_ROW_DUMP);
+        BSZ_BodenseeImport_SidecarIndex index = BSZ_BodenseeImport_SidecarIndex.load(sqlFile, false, 1);
+        assertEquals(Arrays.asList("1990_001", "1991_001"), index.getKeys());
+        List<BSZ_BodenseeImport_Element> elements = index.getElements("1990_001");
+        assertEquals(Arrays.asList("wbjb-j1990-h001-t-001", "wbjb-j1990-h001-t-002"), getPageIds(elements));
+        assertEquals("A's", elements.get(0).getLabel());
+        assertEquals("zwei\nZeilen", elements.get(1).getLabel());
+        assertEquals(Arrays.asList("wbjb-j1991-h001-t-001"), getPageIds(index.getElements("1991_001")));
+        assertSameAsDumpIndex(sqlFile, index);
+    }
+
+    @Test
+    public void testChangingStandardConformingStrings() throws IOException {
+        File sqlFile = write("wbjb.sql", CHANGING_SETTING_DUMP);
+        BSZ_BodenseeImport_SidecarIndex.load(sqlFile, false, 1);
+        // the setting of each range is read from the index file too
+        BSZ_BodenseeImport_SidecarIndex index = BSZ_BodenseeImport_SidecarIndex.load(sqlFile, false, 1);
+        List<BSZ_BodenseeImport_Element> elements = index.getElements("1990_001");
+        assertEquals("A's", elements.get(0).getLabel());
+        assertEquals("C:\\Bilder", elements.get(1).getLabel());
+        assertSameAsDumpIndex(sqlFile, index);
+    }
+
+    @Test
+    public void testNoTemporaryFileIsLeft() throws IOException {
+        File sqlFile = write("wbjb.sql", BSZ_BodenseeImport_DumpIndexTest.DUMP);
+        BSZ_BodenseeImport_SidecarIndex.load(sqlFile, false, 1);
+        BSZ_BodenseeImport_SidecarIndex.load(sqlFile, true, 1);
+        assertEquals(Arrays.asList(sqlFile.getName(), BSZ_BodenseeImport_SidecarIndex.getIndexFile(sqlFile).getName()),
+                Arrays.asList(folder.getRoot().list()).stream().sorted().collect(Collectors.toList()));
+    }
+
+    @Test
+    public void testIndexFileIsReadAgain() throws IOException {
+        File sqlFile = write("wbjb.sql", BSZ_BodenseeImport_DumpIndexTest.DUMP);
+        BSZ_BodenseeImport_SidecarIndex first = BSZ_BodenseeImport_SidecarIndex.load(sqlFile, false, 1);
+        File indexFile = BSZ_BodenseeImport_SidecarIndex.getIndexFile(sqlFile);
+        byte[] content = Files.readAllBytes(indexFile.toPath());
+        indexFile.setLastModified(1000);
+
+        BSZ_BodenseeImport_SidecarIndex second = BSZ_BodenseeImport_SidecarIndex.load(sqlFile, false, 4);
+        // the index file was not written again
+        assertEquals(1000, indexFile.lastModified());
+        assertTrue(Arrays.equals(content, Files.readAllBytes(indexFile.toPath())));
+        assertEquals(first.getKeys(), second.getKeys());
+        assertEquals(first.getHashes(), second.getHashes());
+        assertSameAsDumpIndex(sqlFile, second);
+    }
+
+    @Test
+    public void testChangedDumpIsIndexedAgain() throws IOException {
+        File sqlFile = write("wbjb.sql", BSZ_BodenseeImport_DumpIndexTest.DUMP);
+        BSZ_BodenseeImport_SidecarIndex index = BSZ_BodenseeImport_SidecarIndex.load(sqlFile, false, 1);
+        assertFalse(index.isStale());
+
+        write("wbjb.sql", BSZ_BodenseeImport_DumpIndexTest.DUMP
+                + "INSERT INTO wbjb VALUES ('wbjb-j1995-h003-t-001', 'wbjb.03', 'wbjb', 7, '1995', '1', '/data/1995/001.jpg');\n");
+        assertTrue(index.isStale());
+        index = BSZ_BodenseeImport_SidecarIndex.load(sqlFile, false, 1);
+        assertEquals(Arrays.asList("1988_001", "1988_002", "1989_001", "1995_003"), index.getKeys());
+        assertSameAsDumpIndex(sqlFile, index);
+    }
+
+    @Test
+    public void testOtherKeysAreIndexedAgain() throws IOException {
+        File sqlFile = write("wbjb.sql", BSZ_BodenseeImport_DumpIndexTest.DUMP);
+        BSZ_BodenseeImport_SidecarIndex.load(sqlFile, false, 1);
+        BSZ_BodenseeImport_SidecarIndex index = BSZ_BodenseeImport_SidecarIndex.load(sqlFile, true, 1);
+        assertEquals(Arrays.asList("1988_001_wbjb.01", "1988_002_wbjb.02", "1989_001_wbjb.01"), index.getKeys());
+    }
+
+    @Test
+    public void testBrokenIndexFileIsCreatedAgain() throws IOException {
+        File sqlFile = write("wbjb.sql", BSZ_BodenseeImport_DumpIndexTest.DUMP);
+        write(sqlFile.getName() + BSZ_BodenseeImport_SidecarIndex.FILE_EXTENSION, "no index");
+        BSZ_BodenseeImport_SidecarIndex index = BSZ_BodenseeImport_SidecarIndex.load(sqlFile, false, 1);
+        assertSameAsDumpIndex(sqlFile, index);
+        assertSameAsDumpIndex(sqlFile, BSZ_BodenseeImport_SidecarIndex.load(sqlFile, false, 1));
+    }
+}
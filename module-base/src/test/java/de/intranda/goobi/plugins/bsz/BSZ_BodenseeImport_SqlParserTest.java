@@ -0,0 +1,150 @@
+package de.intranda.goobi.plugins.bsz;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Test;
+
+public class BSZ_BodenseeImport_SqlParserTest {
+
+    private static List<BSZ_BodenseeImport_Element> parse(String... lines) {
+        List<BSZ_BodenseeImport_Element> elements = new ArrayList<>();
+        BSZ_BodenseeImport_SqlParser parser = new BSZ_BodenseeImport_SqlParser(elements::add);
+        for (String line : lines) {
+            parser.parseLine(line);
+        }
+        assertFalse(parser.isInStatement());
+        return elements;
+    }
+
+    @Test
+    public void testSimpleInsert() {
+        List<BSZ_BodenseeImport_Element> elements = parse(
+                "INSERT INTO wbjb VALUES ('wbjb-j1988-h001-t-020', 'wbjb.01', 'wbjb', 23, '1988', '20', '/data/kebweb/wbjb/1988/a-020.jpg');");
+        assertEquals(1, elements.size());
+        BSZ_BodenseeImport_Element element = elements.get(0);
+        assertEquals("wbjb-j1988-h001-t-020", element.getPageid());
+        assertEquals("wbjb.01", element.getBookletid());
+        assertEquals("wbjb", element.getJournalid());
+        assertEquals("23", element.getLfnr());
+        assertEquals("1988", element.getJahr());
+        assertEquals("20", element.getLabel());
+        assertEquals("/data/kebweb/wbjb/1988/a-020.jpg", element.getJpg());
+        assertEquals("1988_001", element.getKey(false));
+    }
+
+    @Test
+    public void testCommasAndQuotesInLiterals() {
+        List<BSZ_BodenseeImport_Element> elements =
+                parse("INSERT INTO wbjb VALUES ('p-h01-t-1', 'b.01', 'wbjb', 1, '1988', 'Titel, Teil 1 (''neu'')', 'x, y.jpg');");
+        assertEquals(1, elements.size());
+        assertEquals("Titel, Teil 1 ('neu')", elements.get(0).getLabel());
+        assertEquals("x, y.jpg", elements.get(0).getJpg());
+        assertEquals("1988", elements.get(0).getJahr());
+    }
+
+    @Test
+    public void testEscapeStrings() {
+        List<BSZ_BodenseeImport_Element> elements =
+                parse("INSERT INTO wbjb VALUES ('p-h01-t-1', 'b.01', 'wbjb', 1, '1988', E'Zeile 1\\nZeile \\'2\\'', 'C:\\bilder\\a.jpg');");
+        assertEquals("Zeile 1\nZeile '2'", elements.get(0).getLabel());
+        // without E the backslash is a normal character as long as standard_conforming_strings is on
+        assertEquals("C:\\bilder\\a.jpg", elements.get(0).getJpg());
+    }
+
+    @Test
+    public void testStandardConformingStringsOff() {
+        List<BSZ_BodenseeImport_Element> elements = parse("SET standard_conforming_strings = off;",
+                "INSERT INTO wbjb VALUES ('p-h01-t-1', 'b.01', 'wbjb', 1, '1988', 'A\\'B', 'a.jpg');");
+        assertEquals("A'B", elements.get(0).getLabel());
+    }
+
+    @Test
+    public void testNull() {
+        List<BSZ_BodenseeImport_Element> elements = parse("INSERT INTO wbjb VALUES ('p-h01-t-1', 'b.01', NULL, null, '1988', 'NULL', 'a.jpg');");
+        assertNull(elements.get(0).getJournalid());
+        assertNull(elements.get(0).getLfnr());
+        // a quoted NULL is a string
+        assertEquals("NULL", elements.get(0).getLabel());
+    }
+
+    @Test
+    public void testMultiRowInsert() {
+        List<BSZ_BodenseeImport_Element> elements = parse("INSERT INTO wbjb (pageid, bookletid, journalid, lfnr, jahr, label, jpg) VALUES",
+                "('p-h01-t-1', 'b.01', 'wbjb', 1, '1988', '1', 'a.jpg'),", "('p-h01-t-2', 'b.01', 'wbjb', 2, '1988', 'zwei", "Zeilen', 'b.jpg'),",
+                "('p-h02-t-1', 'b.02', 'wbjb', 3, '1989', '3', 'c.jpg');");
+        assertEquals(3, elements.size());
+        assertEquals("1", elements.get(0).getLabel());
+        assertEquals("zwei\nZeilen", elements.get(1).getLabel());
+        assertEquals("b.jpg", elements.get(1).getJpg());
+        assertEquals("1989_02", elements.get(2).getKey(false));
+    }
+
+    @Test
+    public void testStatementState() {
+        List<BSZ_BodenseeImport_Element> elements = new ArrayList<>();
+        BSZ_BodenseeImport_SqlParser parser = new BSZ_BodenseeImport_SqlParser(elements::add);
+        parser.parseLine("INSERT INTO wbjb VALUES ('p-h01-t-1', 'b.01', 'wbjb', 1, '1988', 'offen");
+        assertTrue(parser.isInStatement());
+        assertTrue(parser.isInRow());
+        parser.parseLine("', 'a.jpg');");
+        assertFalse(parser.isInStatement());
+        assertEquals(1, elements.size());
+    }
+
+    @Test
+    public void testOtherLinesAreIgnored() {
+        List<BSZ_BodenseeImport_Element> elements = parse("--", "-- Data for Name: wbjb; Type: TABLE DATA", "CREATE TABLE wbjb (", "    pageid character varying(50)",
+                ");", "ALTER TABLE wbjb OWNER TO kebweb;");
+        assertTrue(elements.isEmpty());
+    }
+
+    @Test
+    public void testCopyBlock() {
+        List<BSZ_BodenseeImport_Element> elements = parse("COPY public.wbjb (pageid, bookletid, journalid, lfnr, jahr, label, jpg) FROM stdin;",
+                "p-h01-t-1\tb.01\twbjb\t1\t1988\tTitel, mit Komma\ta.jpg", "p-h01-t-2\tb.01\t\\N\t\\N\t1988\tmit 'Quote'\tb.jpg", "\\.",
+                "INSERT INTO wbjb VALUES ('p-h02-t-1', 'b.02', 'wbjb', 3, '1989', '3', 'c.jpg');");
+        assertEquals(3, elements.size());
+        assertEquals("Titel, mit Komma", elements.get(0).getLabel());
+        assertEquals("1988_01", elements.get(0).getKey(false));
+        assertNull(elements.get(1).getJournalid());
+        assertNull(elements.get(1).getLfnr());
+        assertEquals("mit 'Quote'", elements.get(1).getLabel());
+        // the block ends with \. and the lines after it are read as usual
+        assertEquals("c.jpg", elements.get(2).getJpg());
+    }
+
+    @Test
+    public void testCopyColumnOrder() {
+        List<BSZ_BodenseeImport_Element> elements =
+                parse("COPY wbjb (jpg, \"jahr\", pageid, unknown, label, lfnr, bookletid, journalid) FROM stdin;", "a.jpg\t1988\tp-h01-t-1\tx\t7\t7\tb.01\twbjb",
+                        "\\.");
+        BSZ_BodenseeImport_Element element = elements.get(0);
+        assertEquals("a.jpg", element.getJpg());
+        assertEquals("1988", element.getJahr());
+        assertEquals("p-h01-t-1", element.getPageid());
+        assertEquals("7", element.getLabel());
+        assertEquals("b.01", element.getBookletid());
+        assertEquals("wbjb", element.getJournalid());
+    }
+
+    @Test
+    public void testCopyEscapes() {
+        List<BSZ_BodenseeImport_Element> elements = parse("COPY wbjb (pageid, bookletid, journalid, lfnr, jahr, label, jpg) FROM stdin;",
+                "p-h01-t-1\tb.01\twbjb\t1\t1988\tTab\\there\\nNeue Zeile\\\\\tC:\\\\bilder\\\\a.jpg", "\\.");
+        assertEquals("Tab\there\nNeue Zeile\\", elements.get(0).getLabel());
+        assertEquals("C:\\bilder\\a.jpg", elements.get(0).getJpg());
+    }
+
+    @Test
+    public void testCopyEscapedBytesAreUtf8() {
+        List<BSZ_BodenseeImport_Element> elements = parse("COPY wbjb (pageid, bookletid, journalid, lfnr, jahr, label, jpg) FROM stdin;",
+                "p-h01-t-1\tb.01\twbjb\t1\t1988\tSt\\303\\244dte \\xc3\\xbc\\x41 \\101\ta.jpg", "\\.");
+        assertEquals("St\u00e4dte \u00fcA A", elements.get(0).getLabel());
+    }
+}
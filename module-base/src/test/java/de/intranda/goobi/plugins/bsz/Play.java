@@ -0,0 +1,142 @@
+package de.intranda.goobi.plugins.bsz;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.lang.StringUtils;
+
+/**
+ * Small comparisons of the old and the current way to handle the sql dump, call it with the path to a sql dump, e.g. test/wbjb.sql. It compares the
+ * old split based sql parsing with the {@link BSZ_BodenseeImport_SqlParser} and the grouping and sorting with issue numbers and sort keys that are
+ * calculated on each call with the ones calculated once per element. It is not part of the plugin and not run by the tests, start it by hand from
+ * the test classpath.
+ */
+public class Play {
+	private static final int WARMUP_ROUNDS = 20;
+	private static final int MEASURE_ROUNDS = 50;
+
+	public static void main(String[] args) throws IOException{
+		File f = new File (args.length > 0 ? args[0] : "/opt/digiverso/BSZ/wbjb.sql");
+		List<String> lines = FileUtils.readLines(f, "UTF-8");
+
+		for (int i = 0; i < WARMUP_ROUNDS; i++) {
+			parseSplit(lines);
+			parseTokenizer(lines);
+		}
+
+		long start = System.nanoTime();
+		int count = 0;
+		for (int i = 0; i < MEASURE_ROUNDS; i++) {
+			count += parseSplit(lines).size();
+		}
+		long split = System.nanoTime() - start;
+
+		start = System.nanoTime();
+		for (int i = 0; i < MEASURE_ROUNDS; i++) {
+			count -= parseTokenizer(lines).size();
+		}
+		long tokenizer = System.nanoTime() - start;
+
+		System.out.println("split parser:     " + (split / MEASURE_ROUNDS / 1000000.0) + " ms per dump");
+		System.out.println("tokenizer parser: " + (tokenizer / MEASURE_ROUNDS / 1000000.0) + " ms per dump");
+		System.out.println("difference in element count: " + count);
+
+		List<BSZ_BodenseeImport_Element> elements = parseTokenizer(lines);
+		for (int i = 0; i < WARMUP_ROUNDS; i++) {
+			groupAndSortPerCall(elements);
+			groupAndSortPrecalculated(elements);
+		}
+
+		start = System.nanoTime();
+		for (int i = 0; i < MEASURE_ROUNDS; i++) {
+			groupAndSortPerCall(elements);
+		}
+		long perCall = System.nanoTime() - start;
+
+		start = System.nanoTime();
+		for (int i = 0; i < MEASURE_ROUNDS; i++) {
+			groupAndSortPrecalculated(elements);
+		}
+		long precalculated = System.nanoTime() - start;
+
+		System.out.println("group and sort, calculated per call: " + (perCall / MEASURE_ROUNDS / 1000000.0) + " ms per dump");
+		System.out.println("group and sort, precalculated:       " + (precalculated / MEASURE_ROUNDS / 1000000.0) + " ms per dump");
+		System.out.println("same result: " + groupAndSortPerCall(elements).equals(groupAndSortPrecalculated(elements)));
+	}
+
+	private static List<BSZ_BodenseeImport_Element> parseSplit(List<String> lines) {
+		List <BSZ_BodenseeImport_Element> elements = new ArrayList<>();
+		for (String line : lines) {
+			if (line.startsWith("INSERT INTO")){
+				line = line.substring(line.indexOf("VALUES (") + 8, line.lastIndexOf(")"));
+				String[] parts = line.split(",");
+				elements.add(new BSZ_BodenseeImport_Element(parts[0].trim().replaceAll("'", ""), parts[1].trim().replaceAll("'", ""),
+						parts[2].trim().replaceAll("'", ""), parts[3].trim().replaceAll("'", ""), parts[4].trim().replaceAll("'", ""),
+						parts[5].trim().replaceAll("'", ""), parts[6].trim().replaceAll("'", "")));
+			}
+		}
+		return elements;
+	}
+
+	private static List<BSZ_BodenseeImport_Element> parseTokenizer(List<String> lines) {
+		List <BSZ_BodenseeImport_Element> elements = new ArrayList<>();
+		BSZ_BodenseeImport_SqlParser parser = new BSZ_BodenseeImport_SqlParser(elements::add);
+		for (String line : lines) {
+			parser.parseLine(line);
+		}
+		return elements;
+	}
+
+	/**
+	 * grouping and sorting as it was done before, the issue number and the lower case image name are calculated for each call
+	 */
+	private static Map<String, List<BSZ_BodenseeImport_Element>> groupAndSortPerCall(List<BSZ_BodenseeImport_Element> elements) {
+		Map<String, List<BSZ_BodenseeImport_Element>> groups = new LinkedHashMap<>();
+		for (BSZ_BodenseeImport_Element element : elements) {
+			String isn = "";
+			if (StringUtils.isNumeric(calculateIssueNumber(element))) {
+				isn = "_" + calculateIssueNumber(element);
+			}
+			groups.computeIfAbsent(element.getJahr() + isn, k -> new ArrayList<>()).add(element);
+		}
+		for (List<BSZ_BodenseeImport_Element> group : groups.values()) {
+			Collections.sort(group, (a, b) -> a.getJpg().toLowerCase().compareTo(b.getJpg().toLowerCase()));
+		}
+		return groups;
+	}
+
+	private static Map<String, List<BSZ_BodenseeImport_Element>> groupAndSortPrecalculated(List<BSZ_BodenseeImport_Element> elements) {
+		Map<String, List<BSZ_BodenseeImport_Element>> groups = new LinkedHashMap<>();
+		for (BSZ_BodenseeImport_Element element : elements) {
+			groups.computeIfAbsent(element.getKey(false), k -> new ArrayList<>()).add(element);
+		}
+		for (List<BSZ_BodenseeImport_Element> group : groups.values()) {
+			Collections.sort(group);
+		}
+		return groups;
+	}
+
+	private static String calculateIssueNumber(BSZ_BodenseeImport_Element element) {
+		if (element.getPageid().startsWith("aaaaaaaaa")){
+			return element.getBookletid().substring(element.getBookletid().lastIndexOf(".") + 1);
+		}
+		String nr = element.getPageid().replaceAll("_", "-");
+		nr = nr.substring(nr.indexOf("-h") + 2);
+		Matcher matcher = Pattern.compile("-[a-z]", Pattern.CASE_INSENSITIVE).matcher(nr);
+		if (matcher.find()) {
+			nr = nr.substring(0,matcher.start());
+		}
+		if (nr.length()<2){
+			nr = "0" + nr;
+		}
+		return nr;
+	}
+}